@@ -0,0 +1,117 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Deterministic synthetic inputs resembling what a PLEX server provides: photographic-like images (smooth gradients
+ * with some noise, so that resamplers and encoders have actual work to do) and library section XML with the usual
+ * attributes and child elements of movies.
+ */
+final class BenchmarkData {
+    private static final String[] GENRES = { "Action", "Comedy", "Drama", "Science Fiction", "Thriller", "Animation" };
+    private static final String[] TITLE_WORDS = { "The", "Return", "of", "Dark", "Night", "Am\u00e9lie",
+            "L'\u00c9t\u00e9", "Star", "Wars:", "Episode", "IV", "-", "A", "New", "Hope", "Crouching", "Tiger,",
+            "Hidden", "Dragon", "L\u00e9on", "\u00c7a", "2001", "Space", "Odyssey", "Schindler's", "List", "&",
+            "Friends" };
+
+    private BenchmarkData() {
+    }
+
+    static BufferedImage createImage(final int width, final int height, final int type) {
+        final BufferedImage image = new BufferedImage(width, height, type);
+        final Random random = new Random(width * 31L + height);
+        final int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int noise = random.nextInt(16);
+                final int red = (x * 255 / width + noise) & 0xff;
+                final int green = (y * 255 / height + noise) & 0xff;
+                final int blue = ((x + y) * 127 / (width + height) + 64 + noise) & 0xff;
+                row[x] = 0xff000000 | red << 16 | green << 8 | blue;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    static byte[] encode(final BufferedImage image, final String format) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, format, output)) {
+            throw new IOException("No writer for format " + format);
+        }
+        return output.toByteArray();
+    }
+
+    static String createTitle(final int index) {
+        final Random random = new Random(index);
+        final StringBuilder title = new StringBuilder();
+        final int wordCount = 1 + random.nextInt(6);
+        for (int wordIndex = 0; wordIndex < wordCount; wordIndex++) {
+            if (wordIndex > 0) {
+                title.append(' ');
+            }
+            title.append(TITLE_WORDS[random.nextInt(TITLE_WORDS.length)]);
+        }
+        return title.toString();
+    }
+
+    /**
+     * @return the page of a library section listing the movies from the given index (their rating key being their
+     *         index plus one)
+     */
+    static String createSectionXml(final String librarySectionId, final int start, final int count,
+            final int totalSize) {
+        final StringBuilder xml = new StringBuilder(count * 1500 + 200);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<MediaContainer size=\"").append(count).append("\" totalSize=\"").append(totalSize)
+                .append("\" offset=\"").append(start).append("\" allowSync=\"1\" librarySectionID=\"")
+                .append(librarySectionId).append("\" librarySectionTitle=\"Movies\" viewGroup=\"movie\">\n");
+        for (int index = start; index < start + count; index++) {
+            BenchmarkData.appendVideo(xml, index);
+        }
+        return xml.append("</MediaContainer>\n").toString();
+    }
+
+    private static void appendVideo(final StringBuilder xml, final int index) {
+        final int ratingKey = index + 1;
+        final long updatedAt = 1_500_000_000L + index;
+        final String title = BenchmarkData.escape(BenchmarkData.createTitle(index));
+        xml.append("<Video ratingKey=\"").append(ratingKey).append("\" key=\"/library/metadata/").append(ratingKey)
+                .append("\" guid=\"plex://movie/").append(Integer.toHexString(ratingKey * 7919))
+                .append("\" studio=\"Studio ").append(index % 50).append("\" type=\"movie\" title=\"").append(title);
+        if (index % 3 == 0) {
+            xml.append("\" originalTitle=\"").append(title).append(" (Original)");
+        }
+        xml.append("\" contentRating=\"PG-13\" summary=\"A synthetic movie used to measure the generator, whose ")
+                .append("summary is about as long as real ones &amp; contains some entities.\" rating=\"7.")
+                .append(index % 10).append("\" year=\"").append(1950 + index % 70).append("\" tagline=\"Tagline ")
+                .append(index).append("\" thumb=\"/library/metadata/").append(ratingKey).append("/thumb/")
+                .append(updatedAt).append("\" art=\"/library/metadata/").append(ratingKey).append("/art/")
+                .append(updatedAt).append("\" duration=\"").append(5_400_000 + index)
+                .append("\" originallyAvailableAt=\"2001-01-01\" addedAt=\"").append(updatedAt - 1000)
+                .append("\" updatedAt=\"").append(updatedAt).append("\">\n");
+        xml.append("<Media id=\"").append(ratingKey).append("\" duration=\"").append(5_400_000 + index)
+                .append("\" bitrate=\"8000\" width=\"1920\" height=\"1080\" videoCodec=\"h264\" container=\"mkv\">\n")
+                .append("<Part id=\"").append(ratingKey).append("\" key=\"/library/parts/").append(ratingKey)
+                .append("/file.mkv\" file=\"/movies/").append(title).append("/").append(title)
+                .append(".mkv\" size=\"4000000000\" container=\"mkv\" />\n</Media>\n");
+        xml.append("<Genre tag=\"").append(GENRES[index % GENRES.length]).append("\" />\n");
+        xml.append("<Genre tag=\"").append(GENRES[(index / GENRES.length) % GENRES.length]).append("\" />\n");
+        xml.append("<Director tag=\"Director ").append(index % 100).append("\" />\n");
+        xml.append("<Writer tag=\"Writer ").append(index % 200).append("\" />\n");
+        xml.append("<Country tag=\"France\" />\n");
+        for (int roleIndex = 0; roleIndex < 3; roleIndex++) {
+            xml.append("<Role tag=\"Actor ").append((index + roleIndex) % 500).append("\" />\n");
+        }
+        xml.append("</Video>\n");
+    }
+
+    private static String escape(final String text) {
+        return text.replace("&", "&amp;").replace("\"", "&quot;").replace("'", "&apos;").replace("<", "&lt;");
+    }
+}
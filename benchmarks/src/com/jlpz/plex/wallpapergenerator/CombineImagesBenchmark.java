@@ -0,0 +1,56 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compositing of a resized still and poster with the layout of the default output profile (posters on both sides of
+ * the still unless configured otherwise), releasing the destination right away as the encoding stage does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CombineImagesBenchmark {
+    @Param({ "0", "30" })
+    public int darkness;
+
+    @Param({ "INT_RGB", "INT_ARGB" })
+    public String posterType;
+
+    private PlexWallpaperGenerator.OutputProfile profile;
+    private ImageCompositor compositor;
+    private BufferedImage stillImage;
+    private BufferedImage posterImage;
+
+    @Setup
+    public void setUp() {
+        this.profile = PlexWallpaperGenerator.OUTPUT_PROFILES.get(0);
+        this.compositor = new ImageCompositor((100 - this.darkness) / 100f, 1, Integer.MAX_VALUE);
+        this.stillImage = BenchmarkData.createImage(1924, 1080, BufferedImage.TYPE_INT_RGB);
+        this.posterImage = BenchmarkData.createImage(461, 692,
+                "INT_ARGB".equals(this.posterType) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Benchmark
+    public BufferedImage combineImages() {
+        final BufferedImage combinedImage = PlexWallpaperGenerator.combineImages(this.compositor, this.profile,
+                this.stillImage, this.posterImage);
+        this.compositor.release(combinedImage);
+        return combinedImage;
+    }
+}
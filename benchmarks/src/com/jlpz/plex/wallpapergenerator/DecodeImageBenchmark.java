@@ -0,0 +1,63 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of downloaded JPG images followed by their resizing, either decoding everything or only the cropped and
+ * subsampled part which is needed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DecodeImageBenchmark {
+    @Param({ "1920x1080", "3840x2160", "2000x3000" })
+    public String source;
+
+    @Param({ "1924x1080", "-1x692" })
+    public String target;
+
+    private byte[] data;
+    private int width;
+    private int height;
+
+    @Setup
+    public void setUp() throws IOException {
+        final String[] sourceDimension = this.source.split("x");
+        this.data = BenchmarkData.encode(BenchmarkData.createImage(Integer.parseInt(sourceDimension[0]),
+                Integer.parseInt(sourceDimension[1]), BufferedImage.TYPE_INT_RGB), "jpg");
+        final String[] targetDimension = this.target.split("x");
+        this.width = Integer.parseInt(targetDimension[0]);
+        this.height = Integer.parseInt(targetDimension[1]);
+    }
+
+    @Benchmark
+    public BufferedImage readAndResize() throws IOException {
+        return PlexWallpaperGenerator.resizeImage(ImageIO.read(new ByteArrayInputStream(this.data)), this.width,
+                this.height);
+    }
+
+    @Benchmark
+    public BufferedImage decodeAndResize() throws IOException {
+        return PlexWallpaperGenerator.decodeAndResize(this.data, this.width, this.height);
+    }
+}
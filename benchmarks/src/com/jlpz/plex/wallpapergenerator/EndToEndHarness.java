@@ -0,0 +1,138 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Runs a complete synchronization of an empty target directory against a {@link MockPlexServer}, then reports the
+ * throughput, the latency of each wallpaper (from the moment its movie is listed until its file is written) and the
+ * peak heap usage.
+ * <p>
+ * Arguments: number of movies (default being 500) and response delay of the server in milliseconds (default being 0).
+ * The generator can be tuned with its usual system properties (e.g. FETCH_THREADS, or OUTPUT_PROFILES to measure the
+ * cost of additional profiles), except for the server, library and target directory which are set by the harness.
+ */
+public final class EndToEndHarness {
+    private static final String PROPERTY_PREFIX = PlexWallpaperGenerator.class.getName() + ".";
+    private static final long HEAP_SAMPLING_PERIOD = 5;
+
+    private EndToEndHarness() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int itemCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        final long responseDelay = args.length > 1 ? Long.parseLong(args[1]) : 0L;
+        final byte[] art = BenchmarkData.encode(BenchmarkData.createImage(3840, 2160, BufferedImage.TYPE_INT_RGB),
+                "jpg");
+        final byte[] thumb = BenchmarkData.encode(BenchmarkData.createImage(1000, 1500, BufferedImage.TYPE_INT_RGB),
+                "jpg");
+        final Path targetDirectory = Files.createTempDirectory("wallpapers");
+        try (MockPlexServer server = new MockPlexServer(itemCount, responseDelay, art, thumb)) {
+            // Must be set before the generator reads its configuration, i.e. before it is first used
+            System.setProperty(PROPERTY_PREFIX + "SERVER_URL", server.getUrl());
+            System.setProperty(PROPERTY_PREFIX + "AUTHENTICATION_TOKEN", "harness");
+            System.setProperty(PROPERTY_PREFIX + "LIBRARY_ID", MockPlexServer.LIBRARY_ID);
+            System.setProperty(PROPERTY_PREFIX + "TARGET_DIRECTORY_PATH", targetDirectory.toString());
+            EndToEndHarness.run(itemCount, targetDirectory);
+        } finally {
+            try (Stream<Path> paths = Files.walk(targetDirectory)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private static void run(final int itemCount, final Path targetDirectory) throws Exception {
+        final PlexWallpaperGenerator.Engine engine = PlexWallpaperGenerator.createEngine();
+        final long[] latencies = new long[itemCount];
+        final AtomicInteger completedCount = new AtomicInteger();
+        final AtomicInteger failedCount = new AtomicInteger();
+        engine.pipeline.addListener(new WallpaperPipeline.Listener() {
+            @Override
+            public void completed(final WallpaperJob job) {
+                final int index = completedCount.getAndIncrement();
+                if (index < latencies.length) {
+                    latencies[index] = System.nanoTime() - job.createdAt;
+                }
+            }
+
+            @Override
+            public void failed(final WallpaperJob job, final Throwable throwable) {
+                failedCount.incrementAndGet();
+            }
+        });
+
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        final AtomicLong peakHeap = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+        final Thread heapSampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(HEAP_SAMPLING_PERIOD);
+                } catch (final InterruptedException exception) {
+                    return;
+                }
+            }
+        }, "heap-sampler");
+        heapSampler.setDaemon(true);
+        heapSampler.start();
+
+        final long start = System.nanoTime();
+        try {
+            PlexWallpaperGenerator.synchronize(engine);
+        } finally {
+            engine.close();
+        }
+        final long elapsed = System.nanoTime() - start;
+        heapSampler.interrupt();
+        heapSampler.join();
+
+        final int completed = Math.min(completedCount.get(), latencies.length);
+        final long[] sortedLatencies = Arrays.copyOf(latencies, completed);
+        Arrays.sort(sortedLatencies);
+        System.out.println();
+        System.out.println("Movies listed: " + itemCount);
+        System.out.println("Wallpapers generated: " + completed + " (" + failedCount.get() + " failed) in "
+                + String.format("%.2f", elapsed / 1e9) + " s");
+        System.out.println("Throughput: " + String.format("%.1f", completed / (elapsed / 1e9)) + " wallpapers/s");
+        System.out.println("Latency: p50 " + EndToEndHarness.percentile(sortedLatencies, 50) + " ms, p99 "
+                + EndToEndHarness.percentile(sortedLatencies, 99) + " ms, max "
+                + EndToEndHarness.percentile(sortedLatencies, 100) + " ms");
+        System.out.println("Peak heap: " + peakHeap.get() / (1024 * 1024) + " MB (maximum being "
+                + memory.getHeapMemoryUsage().getMax() / (1024 * 1024) + " MB)");
+        System.out.println("Output size: " + EndToEndHarness.size(targetDirectory) / (1024 * 1024) + " MB");
+        for (final RunMetrics.Stage stage : RunMetrics.Stage.values()) {
+            final RunMetrics.Histogram histogram = engine.targets.get(0).metrics.getStageDuration(stage);
+            System.out.println("Stage " + stage.label() + ": " + histogram.getCount() + " in "
+                    + histogram.getSum() / 1_000_000L + " ms (p50 " + histogram.getPercentile(50) / 1_000_000L
+                    + " ms, p99 " + histogram.getPercentile(99) / 1_000_000L + " ms)");
+        }
+    }
+
+    /**
+     * @return the given percentile (nearest-rank) of sorted latencies, in milliseconds
+     */
+    private static long percentile(final long[] sortedLatencies, final int percentile) {
+        if (sortedLatencies.length == 0) {
+            return 0L;
+        }
+        final int rank = (int) Math.ceil(percentile / 100d * sortedLatencies.length);
+        return sortedLatencies[Math.max(0, rank - 1)] / 1_000_000L;
+    }
+
+    private static long size(final Path directory) throws IOException {
+        // Including the subdirectories of output profiles
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+}
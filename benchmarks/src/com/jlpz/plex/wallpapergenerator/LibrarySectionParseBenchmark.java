@@ -0,0 +1,49 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of a whole library section returned in a single page.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LibrarySectionParseBenchmark {
+    @Param({ "10000" })
+    public int items;
+
+    private byte[] xml;
+
+    @Setup
+    public void setUp() {
+        this.xml = BenchmarkData.createSectionXml("1", 0, this.items, this.items).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<Movie> parse() throws XMLStreamException {
+        final List<Movie> movies = new ArrayList<>(this.items);
+        LibrarySectionReader.parse(new ByteArrayInputStream(this.xml), movies);
+        return movies;
+    }
+}
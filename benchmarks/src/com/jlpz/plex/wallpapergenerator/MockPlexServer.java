@@ -0,0 +1,148 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for a PLEX server: serves a single library section of generated movies (honoring paging) and the
+ * same background/poster images for all of them (as is or through a photo transcoder only supporting "minSize=1"),
+ * optionally after a delay to mimic a remote server.
+ */
+final class MockPlexServer implements AutoCloseable {
+    static final String LIBRARY_ID = "1";
+
+    private static final Pattern IMAGE_PATTERN = Pattern.compile("/library/metadata/\\d+/(art|thumb)/\\d+");
+
+    private final int itemCount;
+    private final long responseDelay;
+    private final byte[] art;
+    private final byte[] thumb;
+    private final ExecutorService executor = Executors.newFixedThreadPool(16);
+    private final HttpServer server;
+    // Transcoded images by source type and dimension
+    private final Map<String, byte[]> transcodedImages = new ConcurrentHashMap<>();
+
+    /**
+     * @param responseDelay in milliseconds
+     */
+    MockPlexServer(final int itemCount, final long responseDelay, final byte[] art, final byte[] thumb)
+            throws IOException {
+        this.itemCount = itemCount;
+        this.responseDelay = responseDelay;
+        this.art = art;
+        this.thumb = thumb;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    String getUrl() {
+        return "http://" + this.server.getAddress().getHostString() + ":" + this.server.getAddress().getPort();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            if (this.responseDelay > 0) {
+                Thread.sleep(this.responseDelay);
+            }
+            final String path = exchange.getRequestURI().getPath();
+            final Matcher imageMatcher = IMAGE_PATTERN.matcher(path);
+            if (("/library/sections/" + LIBRARY_ID + "/all").equals(path)) {
+                final String startHeader = exchange.getRequestHeaders().getFirst("X-Plex-Container-Start");
+                final String sizeHeader = exchange.getRequestHeaders().getFirst("X-Plex-Container-Size");
+                final int start = Math.min(this.itemCount, startHeader == null ? 0 : Integer.parseInt(startHeader));
+                final int size = Math.min(this.itemCount - start,
+                        sizeHeader == null ? this.itemCount : Integer.parseInt(sizeHeader));
+                exchange.getResponseHeaders().add("Content-Type", "text/xml;charset=utf-8");
+                MockPlexServer.send(exchange, BenchmarkData.createSectionXml(LIBRARY_ID, start, size, this.itemCount)
+                        .getBytes(StandardCharsets.UTF_8));
+            } else if ("/photo/:/transcode".equals(path)) {
+                final byte[] image = this.transcode(exchange.getRequestURI().getQuery());
+                if (image == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+                    MockPlexServer.send(exchange, image);
+                }
+            } else if (imageMatcher.matches()) {
+                exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+                MockPlexServer.send(exchange, "art".equals(imageMatcher.group(1)) ? this.art : this.thumb);
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            exchange.sendResponseHeaders(503, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return the image scaled down to cover the requested dimension, {@code null} if it doesn't exist
+     */
+    private byte[] transcode(final String query) throws IOException {
+        final Map<String, String> parameters = new HashMap<>();
+        for (final String parameter : query.split("&")) {
+            final int equalIndex = parameter.indexOf('=');
+            parameters.put(parameter.substring(0, equalIndex), parameter.substring(equalIndex + 1));
+        }
+        final Matcher imageMatcher = IMAGE_PATTERN.matcher(parameters.getOrDefault("url", ""));
+        if (!imageMatcher.matches()) {
+            return null;
+        }
+        final String type = imageMatcher.group(1);
+        final int width = Integer.parseInt(parameters.get("width"));
+        final int height = Integer.parseInt(parameters.get("height"));
+        final String key = type + ":" + width + "x" + height;
+        byte[] image = this.transcodedImages.get(key);
+        if (image == null) {
+            final BufferedImage source = ImageIO
+                    .read(new ByteArrayInputStream("art".equals(type) ? this.art : this.thumb));
+            final double scale = Math.min(1d,
+                    Math.max(width / (double) source.getWidth(), height / (double) source.getHeight()));
+            final BufferedImage target = new BufferedImage((int) Math.ceil(source.getWidth() * scale),
+                    (int) Math.ceil(source.getHeight() * scale), BufferedImage.TYPE_INT_RGB);
+            final Graphics2D graphics = target.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(source, 0, 0, target.getWidth(), target.getHeight(), null);
+            graphics.dispose();
+            image = BenchmarkData.encode(target, "jpg");
+            this.transcodedImages.put(key, image);
+        }
+        return image;
+    }
+
+    private static void send(final HttpExchange exchange, final byte[] body) throws IOException {
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+}
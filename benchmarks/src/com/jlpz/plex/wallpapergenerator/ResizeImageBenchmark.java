@@ -0,0 +1,53 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resizing of decoded images (i.e. {@code TYPE_3BYTE_BGR}, as read from JPEG files) to the size of a still (cropped)
+ * or of a poster (width following the height, "-1").
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ResizeImageBenchmark {
+    @Param({ "1280x720", "1920x1080", "3840x2160", "1000x1500" })
+    public String source;
+
+    @Param({ "1924x1080", "1280x720", "-1x692" })
+    public String target;
+
+    private BufferedImage image;
+    private int width;
+    private int height;
+
+    @Setup
+    public void setUp() {
+        final String[] sourceDimension = this.source.split("x");
+        this.image = BenchmarkData.createImage(Integer.parseInt(sourceDimension[0]),
+                Integer.parseInt(sourceDimension[1]), BufferedImage.TYPE_3BYTE_BGR);
+        final String[] targetDimension = this.target.split("x");
+        this.width = Integer.parseInt(targetDimension[0]);
+        this.height = Integer.parseInt(targetDimension[1]);
+    }
+
+    @Benchmark
+    public BufferedImage resizeImage() {
+        return PlexWallpaperGenerator.resizeImage(this.image, this.width, this.height);
+    }
+}
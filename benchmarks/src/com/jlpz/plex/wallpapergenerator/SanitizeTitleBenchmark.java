@@ -0,0 +1,40 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SanitizeTitleBenchmark {
+    // Power of two, so that titles can be cycled through with a mask
+    private static final int TITLE_COUNT = 1024;
+
+    private final String[] titles = new String[TITLE_COUNT];
+    private int index;
+
+    @Setup
+    public void setUp() {
+        for (int titleIndex = 0; titleIndex < TITLE_COUNT; titleIndex++) {
+            this.titles[titleIndex] = BenchmarkData.createTitle(titleIndex);
+        }
+    }
+
+    @Benchmark
+    public String sanitizeTitle() {
+        return PlexWallpaperGenerator.sanitizeTitle(this.titles[this.index++ & TITLE_COUNT - 1]);
+    }
+}
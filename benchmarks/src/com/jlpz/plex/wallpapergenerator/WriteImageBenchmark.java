@@ -0,0 +1,65 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and writing of a combined wallpaper (default size) to a temporary file, with several encoder strategies:
+ * "jpg" or "png" alone use the quality, "jpg-huffman" also optimizes Huffman tables and "png-&lt;level&gt;" forces the
+ * deflate level (hence ignores the quality).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WriteImageBenchmark {
+    @Param({ "jpg", "jpg-huffman", "png", "png-1", "png-9" })
+    public String encoder;
+
+    // Percentage as for IMAGE_QUALITY, -1 for the default settings of the writer
+    @Param({ "-1", "50", "75", "95" })
+    public int quality;
+
+    private ImageEncoder imageEncoder;
+    private BufferedImage image;
+    private File targetFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        final String[] formatAndOption = this.encoder.split("-");
+        final String format = formatAndOption[0];
+        this.imageEncoder = new ImageEncoder(format, this.quality < 0 ? -1f : this.quality / 100f,
+                "png".equals(format) && formatAndOption.length > 1 ? Integer.valueOf(formatAndOption[1]) : null,
+                "jpg".equals(format) && formatAndOption.length > 1, null);
+        this.image = BenchmarkData.createImage(2846, 1080, BufferedImage.TYPE_INT_RGB);
+        this.targetFile = File.createTempFile("wallpaper", "." + format);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.imageEncoder.dispose();
+        this.targetFile.delete();
+    }
+
+    @Benchmark
+    public ImageEncoder.Result writeImage() throws IOException {
+        return this.imageEncoder.write(this.image, this.targetFile);
+    }
+}
@@ -0,0 +1,33 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+class AtomicFiles {
+    private AtomicFiles() {
+    }
+
+    /**
+     * Moves a fully written temporary file over the given one: atomically if the file system supports it, with a
+     * plain move otherwise (e.g. some SMB/NFS shares). The temporary file is deleted if the move fails.
+     */
+    static void replace(final Path temporaryFile, final Path file) throws IOException {
+        try {
+            try {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException exception) {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (final IOException | RuntimeException exception) {
+            try {
+                Files.deleteIfExists(temporaryFile);
+            } catch (final IOException deletionException) {
+                exception.addSuppressed(deletionException);
+            }
+            throw exception;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+class Hashes {
+    private Hashes() {
+    }
+
+    static String sha256(final String text) {
+        return Hashes.sha256(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the hexadecimal representation of the SHA-256 digest of the given data
+     */
+    static String sha256(final byte[] data) {
+        return Hashes.toHex(Hashes.newSha256().digest(data));
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException exception) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    static String toHex(final byte[] digest) {
+        final StringBuilder hash = new StringBuilder(digest.length * 2);
+        for (final byte digestByte : digest) {
+            hash.append(Character.forDigit(digestByte >> 4 & 0xF, 16)).append(Character.forDigit(digestByte & 0xF, 16));
+        }
+        return hash.toString();
+    }
+}
@@ -0,0 +1,217 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Copies images straight into the {@code int[]} raster of a {@code TYPE_INT_RGB} destination, applying the brightness
+ * factor on the fly, instead of drawing them through {@code Graphics} and darkening the result with a
+ * {@code RescaleOp} (which converts every source again and allocates a second full-size image). Destinations are
+ * pooled: once encoded, they are released to be reused by the next wallpaper. Idle destinations are bounded (in number
+ * and size) so that the memory they retain can be set aside from the {@link MemoryBudget}.
+ */
+class ImageCompositor {
+    private static final int OPAQUE = 0xff;
+
+    // Brightened value of each channel value, null if the brightness is left unchanged
+    private final int[] brightnessTable;
+    private final BlockingQueue<BufferedImage> pool;
+    private final int poolSize;
+    private final long maximumPooledPixels;
+    // Source rows which can't be read from an int[] raster
+    private final ThreadLocal<int[]> rows = ThreadLocal.withInitial(() -> new int[0]);
+
+    /**
+     * @param brightness factor applied to each channel (between 0 and 1)
+     * @param poolSize maximum number of idle destinations kept for reuse (i.e. one per compositing worker, so that
+     *            each finds one as soon as the encoder released it)
+     * @param maximumPooledPixels size of the biggest destination kept for reuse, bigger ones being dropped
+     */
+    ImageCompositor(final float brightness, final int poolSize, final long maximumPooledPixels) {
+        if (brightness < 1f) {
+            this.brightnessTable = new int[OPAQUE + 1];
+            for (int value = 0; value <= OPAQUE; value++) {
+                this.brightnessTable[value] = Math.min(OPAQUE, Math.round(value * brightness));
+            }
+        } else {
+            this.brightnessTable = null;
+        }
+        this.pool = new ArrayBlockingQueue<>(poolSize);
+        this.poolSize = poolSize;
+        this.maximumPooledPixels = maximumPooledPixels;
+    }
+
+    /**
+     * @return in bytes, the most that idle destinations can retain
+     */
+    long getMaximumPooledBytes() {
+        return 4L * this.poolSize * this.maximumPooledPixels;
+    }
+
+    /**
+     * @return a destination whose content is undefined, so every pixel must be either copied or cleared
+     */
+    BufferedImage acquire(final int width, final int height) {
+        final BufferedImage image = this.pool.poll();
+        if (image != null && image.getWidth() == width && image.getHeight() == height) {
+            return image;
+        }
+        // A destination of another size (e.g. next to a poster of another aspect ratio) is simply dropped
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Makes the destination available again; it must not be used afterwards.
+     */
+    void release(final BufferedImage image) {
+        if ((long) image.getWidth() * image.getHeight() <= this.maximumPooledPixels) {
+            this.pool.offer(image);
+        }
+    }
+
+    /**
+     * Sets the given area of the destination to black.
+     */
+    void clear(final BufferedImage destination, final int x, final int y, final int width, final int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        final int[] pixels = ImageCompositor.getPixels(destination);
+        for (int row = y; row < y + height; row++) {
+            final int offset = row * destination.getWidth() + x;
+            Arrays.fill(pixels, offset, offset + width, 0);
+        }
+    }
+
+    /**
+     * Copies the source at the given position of the destination (blending it if it's translucent) while applying
+     * the brightness factor.
+     */
+    void copy(final BufferedImage source, final BufferedImage destination, final int x, final int y) {
+        final int[] destinationPixels = ImageCompositor.getPixels(destination);
+        final int destinationWidth = destination.getWidth();
+        final int width = Math.min(source.getWidth(), destinationWidth - x);
+        final int height = Math.min(source.getHeight(), destination.getHeight() - y);
+        final boolean opaque = !source.getColorModel().hasAlpha();
+        // Decoded JPEG images (e.g. a still kept at its decoded size) are converted row by row without getRGB
+        final byte[] sourceBytes;
+        final int sourceByteStride;
+        int sourceByteOffset;
+        if (source.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            final WritableRaster raster = source.getRaster();
+            sourceBytes = ((DataBufferByte) raster.getDataBuffer()).getData();
+            sourceByteStride = ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride();
+            sourceByteOffset = raster.getDataBuffer().getOffset()
+                    - raster.getSampleModelTranslateY() * sourceByteStride - raster.getSampleModelTranslateX() * 3;
+        } else {
+            sourceBytes = null;
+            sourceByteStride = 0;
+            sourceByteOffset = 0;
+        }
+        final int[] sourcePixels;
+        final int sourceStride;
+        int sourceOffset;
+        if (source.getType() == BufferedImage.TYPE_INT_RGB || source.getType() == BufferedImage.TYPE_INT_ARGB) {
+            final WritableRaster raster = source.getRaster();
+            sourcePixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+            sourceStride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            sourceOffset = raster.getDataBuffer().getOffset()
+                    - raster.getSampleModelTranslateY() * sourceStride - raster.getSampleModelTranslateX();
+        } else {
+            sourcePixels = null;
+            sourceStride = 0;
+            sourceOffset = 0;
+        }
+        int[] row = this.rows.get();
+        if (sourcePixels == null && row.length < width) {
+            row = new int[width];
+            this.rows.set(row);
+        }
+        for (int sourceY = 0; sourceY < height; sourceY++) {
+            final int[] rowPixels;
+            final int rowOffset;
+            if (sourcePixels != null) {
+                rowPixels = sourcePixels;
+                rowOffset = sourceOffset;
+                sourceOffset += sourceStride;
+            } else if (sourceBytes != null) {
+                for (int index = 0, byteIndex = sourceByteOffset; index < width; index++, byteIndex += 3) {
+                    row[index] = (sourceBytes[byteIndex + 2] & OPAQUE) << 16
+                            | (sourceBytes[byteIndex + 1] & OPAQUE) << 8 | sourceBytes[byteIndex] & OPAQUE;
+                }
+                sourceByteOffset += sourceByteStride;
+                rowPixels = row;
+                rowOffset = 0;
+            } else {
+                source.getRGB(0, sourceY, width, 1, row, 0, width);
+                rowPixels = row;
+                rowOffset = 0;
+            }
+            final int destinationOffset = (y + sourceY) * destinationWidth + x;
+            if (opaque) {
+                this.copyRow(rowPixels, rowOffset, destinationPixels, destinationOffset, width);
+            } else {
+                this.blendRow(rowPixels, rowOffset, destinationPixels, destinationOffset, width);
+            }
+        }
+    }
+
+    private void copyRow(final int[] source, final int sourceOffset, final int[] destination,
+            final int destinationOffset, final int width) {
+        final int[] table = this.brightnessTable;
+        if (table == null) {
+            for (int index = 0; index < width; index++) {
+                destination[destinationOffset + index] = source[sourceOffset + index] & 0xffffff;
+            }
+            return;
+        }
+        for (int index = 0; index < width; index++) {
+            final int pixel = source[sourceOffset + index];
+            destination[destinationOffset + index] = table[pixel >> 16 & OPAQUE] << 16
+                    | table[pixel >> 8 & OPAQUE] << 8 | table[pixel & OPAQUE];
+        }
+    }
+
+    /**
+     * Blends a row over what was already copied (i.e. already brightened), like {@code AlphaComposite.SRC_OVER}.
+     */
+    private void blendRow(final int[] source, final int sourceOffset, final int[] destination,
+            final int destinationOffset, final int width) {
+        final int[] table = this.brightnessTable;
+        for (int index = 0; index < width; index++) {
+            final int pixel = source[sourceOffset + index];
+            final int alpha = pixel >>> 24;
+            if (alpha == 0) {
+                continue;
+            }
+            int red = pixel >> 16 & OPAQUE;
+            int green = pixel >> 8 & OPAQUE;
+            int blue = pixel & OPAQUE;
+            if (table != null) {
+                red = table[red];
+                green = table[green];
+                blue = table[blue];
+            }
+            if (alpha < OPAQUE) {
+                final int below = destination[destinationOffset + index];
+                final int inverseAlpha = OPAQUE - alpha;
+                red = (red * alpha + (below >> 16 & OPAQUE) * inverseAlpha + OPAQUE / 2) / OPAQUE;
+                green = (green * alpha + (below >> 8 & OPAQUE) * inverseAlpha + OPAQUE / 2) / OPAQUE;
+                blue = (blue * alpha + (below & OPAQUE) * inverseAlpha + OPAQUE / 2) / OPAQUE;
+            }
+            destination[destinationOffset + index] = red << 16 | green << 8 | blue;
+        }
+    }
+
+    private static int[] getPixels(final BufferedImage image) {
+        // Destinations are always created by acquire, hence neither shared nor translated
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+}
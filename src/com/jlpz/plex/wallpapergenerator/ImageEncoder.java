@@ -0,0 +1,194 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Writes images with an {@link ImageWriter} and parameters configured once per thread and reused (through
+ * {@link ImageWriter#reset()}) for every image. Files are written through a buffered channel into a temporary file
+ * which then replaces the target, so that a crash never leaves a truncated wallpaper behind; their hash is computed
+ * while writing.
+ */
+class ImageEncoder {
+    static final class Result {
+        // Hexadecimal SHA-256 of the written file
+        final String hash;
+        final long size;
+        // In nanoseconds
+        final long encodeTime;
+
+        Result(final String hash, final long size, final long encodeTime) {
+            this.hash = hash;
+            this.size = size;
+            this.encodeTime = encodeTime;
+        }
+    }
+
+    private static final class ThreadEncoder {
+        final ImageWriter writer;
+        final ImageWriteParam params;
+
+        ThreadEncoder(final ImageWriter writer, final ImageWriteParam params) {
+            this.writer = writer;
+            this.params = params;
+        }
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAXIMUM_PNG_COMPRESSION_LEVEL = 9;
+
+    private final String format;
+    private final float quality;
+    private final Integer pngCompressionLevel;
+    private final boolean jpegOptimizedHuffmanTables;
+    private final String writerClassName;
+    private final ThreadLocal<ThreadEncoder> encoders = ThreadLocal.withInitial(this::createEncoder);
+    // To dispose of writers once encoding threads are done
+    private final Queue<ImageWriter> createdWriters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param quality between 0 and 1, negative to use the default quality of the writer
+     * @param pngCompressionLevel deflate level from 0 (fastest) to 9 (smallest), {@code null} to derive it from the
+     *            quality as the PNG writer does
+     * @param writerClassName {@code null} to use the first writer registered for the format
+     */
+    ImageEncoder(final String format, final float quality, final Integer pngCompressionLevel,
+            final boolean jpegOptimizedHuffmanTables, final String writerClassName) {
+        if (pngCompressionLevel != null
+                && (pngCompressionLevel < 0 || pngCompressionLevel > MAXIMUM_PNG_COMPRESSION_LEVEL)) {
+            throw new IllegalArgumentException("Invalid PNG compression level: " + pngCompressionLevel);
+        }
+        this.format = format;
+        this.quality = quality;
+        this.pngCompressionLevel = pngCompressionLevel;
+        this.jpegOptimizedHuffmanTables = jpegOptimizedHuffmanTables;
+        this.writerClassName = writerClassName;
+        // Fails right away rather than in the middle of the first wallpaper
+        this.findWriter().dispose();
+    }
+
+    private ImageWriter findWriter() {
+        final Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(this.format);
+        while (writers.hasNext()) {
+            final ImageWriter writer = writers.next();
+            if (this.writerClassName == null || this.writerClassName.equals(writer.getClass().getName())) {
+                return writer;
+            }
+        }
+        throw new IllegalArgumentException("No image writer " + (this.writerClassName == null ? ""
+                : this.writerClassName + " ") + "available for format " + this.format);
+    }
+
+    private ThreadEncoder createEncoder() {
+        final ImageWriter writer = this.findWriter();
+        this.createdWriters.add(writer);
+        return new ThreadEncoder(writer, this.createParams(writer));
+    }
+
+    private ImageWriteParam createParams(final ImageWriter writer) {
+        final ImageWriteParam params = writer.getDefaultWriteParam();
+        if (params.canWriteProgressive()) {
+            params.setProgressiveMode(ImageWriteParam.MODE_DISABLED);
+        }
+        if (params.canWriteCompressed()) {
+            // The PNG writer derives its deflate level from the quality, i.e. level = (int) (9 * (1 - quality))
+            final float compressionQuality = "png".equals(this.format) && this.pngCompressionLevel != null
+                    ? Math.max(0f, 1f - (this.pngCompressionLevel + 0.5f) / MAXIMUM_PNG_COMPRESSION_LEVEL)
+                    : this.quality;
+            if (compressionQuality >= 0f) {
+                params.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                if (params.getCompressionType() == null && params.getCompressionTypes() != null) {
+                    params.setCompressionType(params.getCompressionTypes()[0]);
+                }
+                params.setCompressionQuality(compressionQuality);
+            }
+        }
+        if (params instanceof JPEGImageWriteParam) {
+            ((JPEGImageWriteParam) params).setOptimizeHuffmanTables(this.jpegOptimizedHuffmanTables);
+        }
+        return params;
+    }
+
+    Result write(final BufferedImage image, final File targetFile) throws IOException {
+        final ThreadEncoder encoder = this.encoders.get();
+        // Hidden and not ending with the format, so that it's never taken for a wallpaper
+        final File temporaryFile = new File(targetFile.getParentFile(), "." + targetFile.getName() + ".tmp");
+        final MessageDigest digest = Hashes.newSha256();
+        final long encodeTime;
+        final long size;
+        // Opened as a File (rather than a Path) since titles may not be representable in the file system encoding
+        try (FileOutputStream fileOutput = new FileOutputStream(temporaryFile)) {
+            final FileChannel channel = fileOutput.getChannel();
+            final OutputStream output = new DigestOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE), digest);
+            // Kept in memory rather than in a cache file, which ImageIO.createImageOutputStream would create
+            final ImageOutputStream stream = new MemoryCacheImageOutputStream(output);
+            final long encodeStart = System.nanoTime();
+            try {
+                encoder.writer.setOutput(stream);
+                encoder.writer.write(null, new IIOImage(image, null, null), encoder.params);
+                stream.close();
+                output.flush();
+            } finally {
+                encoder.writer.reset();
+            }
+            encodeTime = System.nanoTime() - encodeStart;
+            size = channel.size();
+        } catch (final IOException | RuntimeException exception) {
+            temporaryFile.delete();
+            throw exception;
+        }
+        ImageEncoder.replace(temporaryFile, targetFile);
+        return new Result(Hashes.toHex(digest.digest()), size, encodeTime);
+    }
+
+    private static void replace(final File source, final File target) throws IOException {
+        final Path sourcePath;
+        final Path targetPath;
+        try {
+            sourcePath = source.toPath();
+            targetPath = target.toPath();
+        } catch (final InvalidPathException exception) {
+            // E.g. a title with accents under the POSIX locale: File substitutes what the encoding can't represent
+            if (!source.renameTo(target)) {
+                source.delete();
+                throw new IOException("Unable to rename " + source + " to " + target);
+            }
+            return;
+        }
+        AtomicFiles.replace(sourcePath, targetPath);
+    }
+
+    /**
+     * Releases the native resources of the writers (e.g. those of the JPEG one) created so far; must only be called
+     * once the threads which used this encoder are done.
+     */
+    void dispose() {
+        ImageWriter writer;
+        while ((writer = this.createdWriters.poll()) != null) {
+            writer.dispose();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Downloads PLEX images through the shared HTTP client, limiting the number of simultaneous requests per host (the
+ * dispatcher of OkHttp only limits asynchronous calls) and going through the {@link SourceImageCache} if any.
+ */
+class ImageFetcher {
+    private final OkHttpClient client;
+    private final SourceImageCache cache;
+    private final int maxRequestsPerHost;
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    /**
+     * @param cache {@code null} not to cache anything
+     */
+    ImageFetcher(final OkHttpClient client, final SourceImageCache cache, final int maxRequestsPerHost) {
+        this.client = client;
+        this.cache = cache;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * @param url full URL of the image (i.e. including the authentication token)
+     * @param path PLEX path of the image, identifying it in the cache
+     */
+    byte[] fetch(final String url, final String path) throws IOException {
+        final SourceImageCache.Entry cachedEntry = this.cache == null ? null : this.cache.get(path);
+        final Request.Builder requestBuilder = new Request.Builder().url(url).get();
+        if (cachedEntry != null) {
+            if (cachedEntry.eTag != null) {
+                requestBuilder.header("If-None-Match", cachedEntry.eTag);
+            }
+            if (cachedEntry.lastModified != null) {
+                requestBuilder.header("If-Modified-Since", cachedEntry.lastModified);
+            }
+        }
+
+        final URL parsedUrl = new URL(url);
+        final Semaphore permits = this.hostPermits.computeIfAbsent(parsedUrl.getHost() + ":" + parsedUrl.getPort(),
+                host -> new Semaphore(this.maxRequestsPerHost, true));
+        permits.acquireUninterruptibly();
+        try (Response response = this.client.newCall(requestBuilder.build()).execute()) {
+            if (response.code() == 304 && cachedEntry != null) {
+                return cachedEntry.data;
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected response code: " + response);
+            }
+            final byte[] data = response.body().bytes();
+            if (this.cache != null) {
+                this.cache.put(path,
+                        new SourceImageCache.Entry(data, response.header("ETag"), response.header("Last-Modified")));
+            }
+            return data;
+        } finally {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,459 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Crops and scales images in a single separable pass working directly on {@code int[]} rasters (horizontal pass from
+ * the cropped source rows into an intermediate buffer, then vertical pass into the destination), instead of the AWT
+ * area-averaging filter behind {@code Image.getScaledInstance}. Scratch buffers are kept per thread for reuse, up to a
+ * given size beyond which they are dropped after each use, so that what they retain can be set aside from the
+ * {@link MemoryBudget}. Images with alpha are filtered with premultiplied colors, so that the color of transparent
+ * pixels doesn't bleed into their neighbours (dark fringes around cut-outs).
+ */
+class ImageResampler {
+    static enum Kernel {
+        BILINEAR(1d) {
+            @Override
+            double weight(final double x) {
+                final double absoluteX = Math.abs(x);
+                return absoluteX < 1d ? 1d - absoluteX : 0d;
+            }
+        },
+        BICUBIC(2d) {
+            // Catmull-Rom (i.e. a = -0.5)
+            @Override
+            double weight(final double x) {
+                final double absoluteX = Math.abs(x);
+                if (absoluteX < 1d) {
+                    return (1.5d * absoluteX - 2.5d) * absoluteX * absoluteX + 1d;
+                }
+                if (absoluteX < 2d) {
+                    return ((-0.5d * absoluteX + 2.5d) * absoluteX - 4d) * absoluteX + 2d;
+                }
+                return 0d;
+            }
+        },
+        LANCZOS3(3d) {
+            @Override
+            double weight(final double x) {
+                if (x == 0d) {
+                    return 1d;
+                }
+                if (Math.abs(x) >= 3d) {
+                    return 0d;
+                }
+                final double piX = Math.PI * x;
+                return 3d * Math.sin(piX) * Math.sin(piX / 3d) / (piX * piX);
+            }
+        };
+
+        final double support;
+
+        private Kernel(final double support) {
+            this.support = support;
+        }
+
+        abstract double weight(double x);
+
+        public static List<String> names() {
+            return Arrays.stream(Kernel.values()).map(kernel -> kernel.name()).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Provides rows of the area to resample as packed ARGB pixels.
+     */
+    @FunctionalInterface
+    private static interface RowReader {
+        void read(int y, int[] row);
+    }
+
+    private static final int WEIGHT_BITS = 14;
+    private static final int WEIGHT_ROUNDING = 1 << WEIGHT_BITS - 1;
+
+    /**
+     * For each destination index, the first source index contributing to it and the (normalized, fixed-point) weights
+     * of the following ones.
+     */
+    private static final class Contributions {
+        final int[] starts;
+        final int[] counts;
+        final int[] weights;
+        final int stride;
+
+        Contributions(final int sourceSize, final int targetSize, final Kernel kernel) {
+            final double scale = (double) targetSize / sourceSize;
+            final double filterScale = Math.max(1d, 1d / scale);
+            final double support = kernel.support * filterScale;
+            this.stride = (int) Math.ceil(support) * 2 + 1;
+            this.starts = new int[targetSize];
+            this.counts = new int[targetSize];
+            this.weights = new int[targetSize * this.stride];
+            final double[] weights = new double[this.stride];
+            for (int target = 0; target < targetSize; target++) {
+                final double center = (target + 0.5d) / scale - 0.5d;
+                final int start = Math.max(0, (int) Math.ceil(center - support));
+                final int end = Math.min(sourceSize - 1, (int) Math.floor(center + support));
+                double total = 0d;
+                int count = 0;
+                for (int source = start; source <= end && count < this.stride; source++, count++) {
+                    weights[count] = kernel.weight((source - center) / filterScale);
+                    total += weights[count];
+                }
+                for (int index = 0; index < count; index++) {
+                    this.weights[target * this.stride + index] = (int) Math
+                            .round((total == 0d ? 0d : weights[index] / total) * (1 << WEIGHT_BITS));
+                }
+                this.starts[target] = start;
+                this.counts[target] = count;
+            }
+        }
+    }
+
+    private static final class Scratch {
+        int[] row = new int[0];
+        int[] nextRow = new int[0];
+        int[] intermediate = new int[0];
+        int[][] halved = { new int[0], new int[0] };
+        int[] accumulator = new int[0];
+
+        int[] row(final int length) {
+            if (this.row.length < length) {
+                this.row = new int[length];
+            }
+            return this.row;
+        }
+
+        int[] nextRow(final int length) {
+            if (this.nextRow.length < length) {
+                this.nextRow = new int[length];
+            }
+            return this.nextRow;
+        }
+
+        int[] intermediate(final int length) {
+            if (this.intermediate.length < length) {
+                this.intermediate = new int[length];
+            }
+            return this.intermediate;
+        }
+
+        int[] halved(final int index, final int length) {
+            if (this.halved[index].length < length) {
+                this.halved[index] = new int[length];
+            }
+            return this.halved[index];
+        }
+
+        /**
+         * @return in bytes, the size of the buffers
+         */
+        long size() {
+            return 4L * ((long) this.row.length + this.nextRow.length + this.intermediate.length
+                    + this.halved[0].length + this.halved[1].length + this.accumulator.length);
+        }
+
+        int[] accumulator(final int length) {
+            if (this.accumulator.length < length) {
+                this.accumulator = new int[length];
+            } else {
+                Arrays.fill(this.accumulator, 0, length, 0);
+            }
+            return this.accumulator;
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final Kernel kernel;
+    private final boolean progressive;
+    private final long maximumRetainedScratchBytes;
+
+    /**
+     * @param maximumRetainedScratchBytes size of the scratch buffers each thread may keep between two uses
+     */
+    ImageResampler(final Kernel kernel, final boolean progressive, final long maximumRetainedScratchBytes) {
+        this.kernel = kernel;
+        this.progressive = progressive;
+        this.maximumRetainedScratchBytes = maximumRetainedScratchBytes;
+    }
+
+    long getMaximumRetainedScratchBytes() {
+        return this.maximumRetainedScratchBytes;
+    }
+
+    /**
+     * @return in bytes, the most that {@link #resample} allocates besides the returned image (i.e. scratch buffers
+     *         and filter weights) for the given area and dimension
+     */
+    long getWorkingBytes(final int cropWidth, final int cropHeight, final int width, final int height) {
+        int sourceWidth = cropWidth;
+        int sourceHeight = cropHeight;
+        final long[] halvedLengths = new long[2];
+        int halvedIndex = 0;
+        while (this.progressive && sourceWidth >= 2 * width && sourceHeight >= 2 * height) {
+            halvedLengths[halvedIndex] = Math.max(halvedLengths[halvedIndex],
+                    (long) (sourceWidth / 2) * (sourceHeight / 2));
+            sourceWidth /= 2;
+            sourceHeight /= 2;
+            halvedIndex = 1 - halvedIndex;
+        }
+        // Rows (as wide as the crop), intermediate, accumulator and starts, counts and weights of both passes
+        return 4L * (halvedLengths[0] + halvedLengths[1] + 2L * cropWidth + (long) width * sourceHeight + 4L * width
+                + (long) width * (2 + this.getStride(sourceWidth, width))
+                + (long) height * (2 + this.getStride(sourceHeight, height)));
+    }
+
+    /**
+     * @return the stride of the {@link Contributions} of the given sizes
+     */
+    private int getStride(final int sourceSize, final int targetSize) {
+        return (int) Math.ceil(this.kernel.support * Math.max(1d, (double) sourceSize / targetSize)) * 2 + 1;
+    }
+
+    /**
+     * @return a new image of the given dimension, made of the given area of the source image
+     */
+    BufferedImage resample(final BufferedImage source, final int cropX, final int cropY, final int cropWidth,
+            final int cropHeight, final int width, final int height) {
+        final boolean alpha = source.getColorModel().hasAlpha();
+        final Scratch scratch = SCRATCH.get();
+        RowReader reader = ImageResampler.rowReader(source, cropX, cropY, cropWidth, alpha);
+        if (alpha) {
+            reader = ImageResampler.premultiplied(reader, cropWidth);
+        }
+        int sourceWidth = cropWidth;
+        int sourceHeight = cropHeight;
+        // Box-filter halving is way cheaper than a wide kernel for big downscales; the kernel then only has to cover
+        // the last (less than 2x) step
+        int halvedIndex = 0;
+        while (this.progressive && sourceWidth >= 2 * width && sourceHeight >= 2 * height) {
+            final int[] halved = scratch.halved(halvedIndex, sourceWidth / 2 * (sourceHeight / 2));
+            ImageResampler.halve(reader, sourceWidth, sourceHeight, halved, scratch);
+            sourceWidth /= 2;
+            sourceHeight /= 2;
+            reader = ImageResampler.rowReader(halved, sourceWidth);
+            halvedIndex = 1 - halvedIndex;
+        }
+
+        final BufferedImage target = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        final int[] targetPixels = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+        this.resample(reader, sourceWidth, sourceHeight, targetPixels, width, height, alpha, scratch);
+        if (scratch.size() > this.maximumRetainedScratchBytes) {
+            SCRATCH.remove();
+        }
+        return target;
+    }
+
+    private void resample(final RowReader reader, final int sourceWidth, final int sourceHeight,
+            final int[] targetPixels, final int width, final int height, final boolean alpha, final Scratch scratch) {
+        // Horizontal pass: source rows => intermediate (width x sourceHeight)
+        final Contributions horizontal = new Contributions(sourceWidth, width, this.kernel);
+        final int[] intermediate = scratch.intermediate(width * sourceHeight);
+        final int[] row = scratch.row(sourceWidth);
+        final int[] horizontalWeights = horizontal.weights;
+        for (int y = 0; y < sourceHeight; y++) {
+            reader.read(y, row);
+            final int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int a = WEIGHT_ROUNDING, r = WEIGHT_ROUNDING, g = WEIGHT_ROUNDING, b = WEIGHT_ROUNDING;
+                final int start = horizontal.starts[x];
+                final int weightOffset = x * horizontal.stride;
+                final int count = horizontal.counts[x];
+                for (int index = 0; index < count; index++) {
+                    final int pixel = row[start + index];
+                    final int weight = horizontalWeights[weightOffset + index];
+                    r += (pixel >> 16 & 0xFF) * weight;
+                    g += (pixel >> 8 & 0xFF) * weight;
+                    b += (pixel & 0xFF) * weight;
+                }
+                if (alpha) {
+                    for (int index = 0; index < count; index++) {
+                        a += (row[start + index] >>> 24) * horizontalWeights[weightOffset + index];
+                    }
+                }
+                intermediate[offset + x] = (alpha ? ImageResampler.clamp(a) << 24 : 0xFF000000)
+                        | ImageResampler.clamp(r) << 16 | ImageResampler.clamp(g) << 8 | ImageResampler.clamp(b);
+            }
+        }
+
+        // Vertical pass: intermediate rows => target, accumulating whole rows to stay cache-friendly
+        final Contributions vertical = new Contributions(sourceHeight, height, this.kernel);
+        final int channels = alpha ? 4 : 3;
+        for (int y = 0; y < height; y++) {
+            final int[] accumulator = scratch.accumulator(width * channels);
+            final int start = vertical.starts[y];
+            final int weightOffset = y * vertical.stride;
+            for (int index = 0, count = vertical.counts[y]; index < count; index++) {
+                final int weight = vertical.weights[weightOffset + index];
+                final int offset = (start + index) * width;
+                for (int x = 0, channel = 0; x < width; x++, channel += channels) {
+                    final int pixel = intermediate[offset + x];
+                    accumulator[channel] += (pixel >> 16 & 0xFF) * weight;
+                    accumulator[channel + 1] += (pixel >> 8 & 0xFF) * weight;
+                    accumulator[channel + 2] += (pixel & 0xFF) * weight;
+                    if (alpha) {
+                        accumulator[channel + 3] += (pixel >>> 24) * weight;
+                    }
+                }
+            }
+            final int offset = y * width;
+            for (int x = 0, channel = 0; x < width; x++, channel += channels) {
+                final int pixel = ImageResampler.clamp(accumulator[channel] + WEIGHT_ROUNDING) << 16
+                        | ImageResampler.clamp(accumulator[channel + 1] + WEIGHT_ROUNDING) << 8
+                        | ImageResampler.clamp(accumulator[channel + 2] + WEIGHT_ROUNDING);
+                targetPixels[offset + x] = alpha
+                        ? ImageResampler.unpremultiply(
+                                ImageResampler.clamp(accumulator[channel + 3] + WEIGHT_ROUNDING) << 24 | pixel)
+                        : pixel;
+            }
+        }
+    }
+
+    private static void halve(final RowReader reader, final int sourceWidth, final int sourceHeight,
+            final int[] halved, final Scratch scratch) {
+        final int halvedWidth = sourceWidth / 2;
+        final int[] row = scratch.row(sourceWidth);
+        final int[] nextRow = scratch.nextRow(sourceWidth);
+        for (int y = 0; y < sourceHeight / 2; y++) {
+            reader.read(2 * y, row);
+            reader.read(2 * y + 1, nextRow);
+            final int offset = y * halvedWidth;
+            for (int x = 0; x < halvedWidth; x++) {
+                final int topLeft = row[2 * x];
+                final int topRight = row[2 * x + 1];
+                final int bottomLeft = nextRow[2 * x];
+                final int bottomRight = nextRow[2 * x + 1];
+                halved[offset + x] = ((topLeft >>> 24) + (topRight >>> 24) + (bottomLeft >>> 24)
+                        + (bottomRight >>> 24) + 2) / 4 << 24
+                        | ((topLeft >> 16 & 0xFF) + (topRight >> 16 & 0xFF) + (bottomLeft >> 16 & 0xFF)
+                                + (bottomRight >> 16 & 0xFF) + 2) / 4 << 16
+                        | ((topLeft >> 8 & 0xFF) + (topRight >> 8 & 0xFF) + (bottomLeft >> 8 & 0xFF)
+                                + (bottomRight >> 8 & 0xFF) + 2) / 4 << 8
+                        | ((topLeft & 0xFF) + (topRight & 0xFF) + (bottomLeft & 0xFF) + (bottomRight & 0xFF) + 2) / 4;
+            }
+        }
+    }
+
+    /**
+     * @return the given fixed-point (and already rounded) channel value as a byte
+     */
+    private static int clamp(final int value) {
+        final int channel = value >> WEIGHT_BITS;
+        return channel < 0 ? 0 : channel > 255 ? 255 : channel;
+    }
+
+    /**
+     * @return the given packed ARGB pixel with its colors multiplied by its alpha
+     */
+    private static int premultiply(final int pixel) {
+        final int alpha = pixel >>> 24;
+        if (alpha == 0xFF) {
+            return pixel;
+        }
+        return alpha << 24 | ((pixel >> 16 & 0xFF) * alpha + 127) / 255 << 16
+                | ((pixel >> 8 & 0xFF) * alpha + 127) / 255 << 8 | ((pixel & 0xFF) * alpha + 127) / 255;
+    }
+
+    /**
+     * @return the given packed premultiplied ARGB pixel with its colors divided by its alpha, clamped since kernels
+     *         with negative lobes may leave colors above the alpha
+     */
+    private static int unpremultiply(final int pixel) {
+        final int alpha = pixel >>> 24;
+        if (alpha == 0xFF) {
+            return pixel;
+        }
+        if (alpha == 0) {
+            return 0;
+        }
+        final int half = alpha / 2;
+        return alpha << 24 | Math.min(255, ((pixel >> 16 & 0xFF) * 255 + half) / alpha) << 16
+                | Math.min(255, ((pixel >> 8 & 0xFF) * 255 + half) / alpha) << 8
+                | Math.min(255, ((pixel & 0xFF) * 255 + half) / alpha);
+    }
+
+    private static RowReader premultiplied(final RowReader reader, final int width) {
+        return (y, row) -> {
+            reader.read(y, row);
+            for (int x = 0; x < width; x++) {
+                row[x] = ImageResampler.premultiply(row[x]);
+            }
+        };
+    }
+
+    private static RowReader rowReader(final int[] pixels, final int width) {
+        return (y, row) -> System.arraycopy(pixels, y * width, row, 0, width);
+    }
+
+    /**
+     * Reads straight from the data buffer of the usual decoded layouts (packed ints, or interleaved bytes as produced
+     * by JPEG/PNG readers), falling back on {@link BufferedImage#getRGB} otherwise.
+     */
+    private static RowReader rowReader(final BufferedImage image, final int cropX, final int cropY,
+            final int cropWidth, final boolean alpha) {
+        final WritableRaster raster = image.getRaster();
+        final int opaqueMask = alpha ? 0 : 0xFF000000;
+        if (raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer().getNumBanks() == 1 && raster.getDataBuffer().getOffset() == 0) {
+            if (raster.getDataBuffer() instanceof DataBufferInt
+                    && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                    && (image.getType() == BufferedImage.TYPE_INT_RGB
+                            || image.getType() == BufferedImage.TYPE_INT_ARGB)) {
+                final int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+                final int scanlineStride = ((SinglePixelPackedSampleModel) raster.getSampleModel())
+                        .getScanlineStride();
+                return (y, row) -> {
+                    final int offset = (cropY + y) * scanlineStride + cropX;
+                    for (int x = 0; x < cropWidth; x++) {
+                        row[x] = data[offset + x] | opaqueMask;
+                    }
+                };
+            }
+            if (raster.getDataBuffer() instanceof DataBufferByte
+                    && raster.getSampleModel() instanceof ComponentSampleModel
+                    && image.getColorModel() instanceof ComponentColorModel
+                    && image.getColorModel().getColorSpace().isCS_sRGB()
+                    && image.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_RGB
+                    && !image.getColorModel().isAlphaPremultiplied()
+                    && raster.getNumBands() == (alpha ? 4 : 3)) {
+                final byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                final ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+                final int scanlineStride = sampleModel.getScanlineStride();
+                final int pixelStride = sampleModel.getPixelStride();
+                final int[] bandOffsets = sampleModel.getBandOffsets();
+                final int redOffset = bandOffsets[0];
+                final int greenOffset = bandOffsets[1];
+                final int blueOffset = bandOffsets[2];
+                final int alphaOffset = alpha ? bandOffsets[3] : -1;
+                return (y, row) -> {
+                    int offset = (cropY + y) * scanlineStride + cropX * pixelStride;
+                    for (int x = 0; x < cropWidth; x++, offset += pixelStride) {
+                        row[x] = (alpha ? (data[offset + alphaOffset] & 0xFF) << 24 : 0xFF000000)
+                                | (data[offset + redOffset] & 0xFF) << 16 | (data[offset + greenOffset] & 0xFF) << 8
+                                | data[offset + blueOffset] & 0xFF;
+                    }
+                };
+            }
+        }
+        return (y, row) -> {
+            image.getRGB(cropX, cropY + y, cropWidth, 1, row, 0, cropWidth);
+            if (!alpha) {
+                for (int x = 0; x < cropWidth; x++) {
+                    row[x] |= opaqueMask;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,194 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses JSON documents (e.g. the payloads of PLEX webhooks) into {@link Map}s (keeping the order of members),
+ * {@link List}s, {@link String}s, {@link BigDecimal}s, {@link Boolean}s and {@code null}s. Documents come from the
+ * network, hence nesting is limited so that a malicious one can't exhaust the stack.
+ */
+class JsonParser {
+    private static final int MAXIMUM_DEPTH = 64;
+
+    private final String text;
+    private int position;
+
+    private JsonParser(final String text) {
+        this.text = text;
+    }
+
+    static Object parse(final String text) throws IOException {
+        final JsonParser parser = new JsonParser(text);
+        final Object value = parser.readValue(0);
+        parser.skipWhitespace();
+        if (parser.position < text.length()) {
+            throw parser.error("Unexpected content after the document");
+        }
+        return value;
+    }
+
+    private Object readValue(final int depth) throws IOException {
+        if (depth > MAXIMUM_DEPTH) {
+            throw this.error("Too deeply nested");
+        }
+        this.skipWhitespace();
+        if (this.position >= this.text.length()) {
+            throw this.error("Unexpected end of the document");
+        }
+        switch (this.text.charAt(this.position)) {
+        case '{':
+            return this.readObject(depth);
+        case '[':
+            return this.readArray(depth);
+        case '"':
+            return this.readString();
+        case 't':
+            return this.readLiteral("true", Boolean.TRUE);
+        case 'f':
+            return this.readLiteral("false", Boolean.FALSE);
+        case 'n':
+            return this.readLiteral("null", null);
+        default:
+            return this.readNumber();
+        }
+    }
+
+    private Map<String, Object> readObject(final int depth) throws IOException {
+        final Map<String, Object> object = new LinkedHashMap<>();
+        this.position++;
+        this.skipWhitespace();
+        if (this.accept('}')) {
+            return object;
+        }
+        do {
+            this.skipWhitespace();
+            if (this.position >= this.text.length() || this.text.charAt(this.position) != '"') {
+                throw this.error("Expected a member name");
+            }
+            final String name = this.readString();
+            this.skipWhitespace();
+            if (!this.accept(':')) {
+                throw this.error("Expected ':'");
+            }
+            object.put(name, this.readValue(depth + 1));
+            this.skipWhitespace();
+        } while (this.accept(','));
+        if (!this.accept('}')) {
+            throw this.error("Expected ',' or '}'");
+        }
+        return object;
+    }
+
+    private List<Object> readArray(final int depth) throws IOException {
+        final List<Object> array = new ArrayList<>();
+        this.position++;
+        this.skipWhitespace();
+        if (this.accept(']')) {
+            return array;
+        }
+        do {
+            array.add(this.readValue(depth + 1));
+            this.skipWhitespace();
+        } while (this.accept(','));
+        if (!this.accept(']')) {
+            throw this.error("Expected ',' or ']'");
+        }
+        return array;
+    }
+
+    private String readString() throws IOException {
+        final StringBuilder string = new StringBuilder();
+        this.position++;
+        while (this.position < this.text.length()) {
+            final char character = this.text.charAt(this.position++);
+            if (character == '"') {
+                return string.toString();
+            }
+            if (character != '\\') {
+                string.append(character);
+                continue;
+            }
+            if (this.position >= this.text.length()) {
+                break;
+            }
+            final char escaped = this.text.charAt(this.position++);
+            switch (escaped) {
+            case 'b':
+                string.append('\b');
+                break;
+            case 'f':
+                string.append('\f');
+                break;
+            case 'n':
+                string.append('\n');
+                break;
+            case 'r':
+                string.append('\r');
+                break;
+            case 't':
+                string.append('\t');
+                break;
+            case 'u':
+                if (this.position + 4 > this.text.length()) {
+                    throw this.error("Truncated unicode escape");
+                }
+                try {
+                    string.append((char) Integer.parseInt(this.text.substring(this.position, this.position + 4), 16));
+                } catch (final NumberFormatException exception) {
+                    throw this.error("Invalid unicode escape");
+                }
+                this.position += 4;
+                break;
+            default:
+                // '"', '\' and '/'
+                string.append(escaped);
+                break;
+            }
+        }
+        throw this.error("Unterminated string");
+    }
+
+    private Object readLiteral(final String literal, final Object value) throws IOException {
+        if (!this.text.startsWith(literal, this.position)) {
+            throw this.error("Unexpected value");
+        }
+        this.position += literal.length();
+        return value;
+    }
+
+    private BigDecimal readNumber() throws IOException {
+        final int start = this.position;
+        while (this.position < this.text.length() && "+-0123456789.eE".indexOf(this.text.charAt(this.position)) >= 0) {
+            this.position++;
+        }
+        try {
+            return new BigDecimal(this.text.substring(start, this.position));
+        } catch (final NumberFormatException exception) {
+            this.position = start;
+            throw this.error("Unexpected value");
+        }
+    }
+
+    private boolean accept(final char character) {
+        if (this.position < this.text.length() && this.text.charAt(this.position) == character) {
+            this.position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (this.position < this.text.length() && " \t\r\n".indexOf(this.text.charAt(this.position)) >= 0) {
+            this.position++;
+        }
+    }
+
+    private IOException error(final String message) {
+        return new IOException(message + " at offset " + this.position + " of the JSON document");
+    }
+}
@@ -0,0 +1,203 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Reads the content of a library section page by page (using "X-Plex-Container-Start" & "X-Plex-Container-Size") with
+ * a streaming parser, so that only small {@link Movie} records are kept in memory instead of the whole XML tree. Both
+ * movie and show sections are supported.
+ */
+class LibrarySectionReader {
+    @FunctionalInterface
+    static interface MovieHandler {
+        void handle(int index, Movie movie) throws Exception;
+    }
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final OkHttpClient client;
+    private final String url;
+    private final int pageSize;
+    private final RunMetrics metrics;
+
+    LibrarySectionReader(final OkHttpClient client, final String url, final int pageSize, final RunMetrics metrics) {
+        this.client = client;
+        this.url = url;
+        this.pageSize = pageSize;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Calls the handler for each movie of the section, in the order of the server, page after page. A page is fully
+     * read (and its connection released) before its movies are handled, so that a busy handler never stalls the
+     * server.
+     */
+    void forEach(final MovieHandler handler) throws Exception {
+        int start = 0;
+        while (true) {
+            final List<Movie> movies = new ArrayList<>(this.pageSize);
+            final int totalSize;
+            final Request request = new Request.Builder().url(this.url)
+                    .header("X-Plex-Container-Start", String.valueOf(start))
+                    .header("X-Plex-Container-Size", String.valueOf(this.pageSize)).get().build();
+            try (Response response = this.client.newCall(request).execute()) {
+                if (!response.isSuccessful()) {
+                    throw new IOException("Unexpected response code: " + response + " " + response.body().string());
+                }
+                final long parseStart = System.nanoTime();
+                totalSize = LibrarySectionReader.parse(response.body().byteStream(), movies);
+                this.metrics.record(RunMetrics.Stage.PARSE, System.nanoTime() - parseStart);
+            }
+            for (int movieIndex = 0; movieIndex < movies.size(); movieIndex++) {
+                handler.handle(start + movieIndex, movies.get(movieIndex));
+            }
+            start += movies.size();
+            if (totalSize == -1 || movies.size() < this.pageSize || start >= totalSize) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param url full URL of a single item (i.e. "/library/metadata/&lt;ratingKey&gt;")
+     * @return the movie (or show), or {@code null} if it doesn't exist (anymore)
+     */
+    static Movie readMovie(final OkHttpClient client, final String url, final RunMetrics metrics)
+            throws IOException, XMLStreamException {
+        final List<Movie> movies = new ArrayList<>(1);
+        try (Response response = client.newCall(new Request.Builder().url(url).get().build()).execute()) {
+            if (response.code() == 404) {
+                return null;
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected response code: " + response + " " + response.body().string());
+            }
+            final long parseStart = System.nanoTime();
+            LibrarySectionReader.parse(response.body().byteStream(), movies);
+            metrics.record(RunMetrics.Stage.PARSE, System.nanoTime() - parseStart);
+        }
+        return movies.isEmpty() ? null : movies.get(0);
+    }
+
+    /**
+     * @param url full URL of the identity of a server (i.e. "/identity")
+     * @return the "machineIdentifier" of the server, {@code null} if there's none
+     */
+    static String readServerIdentifier(final OkHttpClient client, final String url)
+            throws IOException, XMLStreamException {
+        try (Response response = client.newCall(new Request.Builder().url(url).get().build()).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected response code: " + response + " " + response.body().string());
+            }
+            final XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(response.body().byteStream());
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT
+                            && "MediaContainer".equals(reader.getLocalName())) {
+                        return reader.getAttributeValue(null, "machineIdentifier");
+                    }
+                }
+                return null;
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * @return the "totalSize" announced by the container, or -1 if there's none (i.e. the server ignored paging)
+     */
+    static int parse(final InputStream stream, final List<Movie> movies) throws XMLStreamException {
+        final XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(stream);
+        try {
+            int totalSize = -1;
+            Movie movie = null;
+            // Depth of the current element relative to the "Video"/"Directory" one, and whether it is inside a "Media"
+            // one
+            int depth = 0;
+            boolean inMedia = false;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    final String name = reader.getLocalName();
+                    if (movie == null) {
+                        // Movies are "Video" elements, shows are "Directory" ones (like the sections or folders)
+                        if ("Video".equals(name)
+                                || "Directory".equals(name) && reader.getAttributeValue(null, "ratingKey") != null) {
+                            movie = LibrarySectionReader.readMovie(reader);
+                            movie.show = "Directory".equals(name);
+                            depth = 0;
+                        } else if ("MediaContainer".equals(name)) {
+                            final String totalSizeValue = reader.getAttributeValue(null, "totalSize");
+                            if (totalSizeValue != null) {
+                                totalSize = Integer.parseInt(totalSizeValue);
+                            }
+                        }
+                        break;
+                    }
+                    depth++;
+                    if (depth == 1 && "Media".equals(name)) {
+                        inMedia = true;
+                    } else if (depth == 1 && "Genre".equals(name)) {
+                        movie.genres.add(reader.getAttributeValue(null, "tag"));
+                    } else if (depth == 2 && inMedia && "Part".equals(name)) {
+                        movie.filePaths.add(reader.getAttributeValue(null, "file"));
+                    } else if (depth == 1 && "Location".equals(name)) {
+                        // Folder of a show
+                        movie.filePaths.add(reader.getAttributeValue(null, "path"));
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (movie == null) {
+                        break;
+                    }
+                    if (depth == 0) {
+                        movies.add(movie);
+                        movie = null;
+                        break;
+                    }
+                    if (depth == 1) {
+                        inMedia = false;
+                    }
+                    depth--;
+                    break;
+                default:
+                    break;
+                }
+            }
+            return totalSize;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Movie readMovie(final XMLStreamReader reader) {
+        final Movie movie = new Movie();
+        movie.ratingKey = reader.getAttributeValue(null, "ratingKey");
+        movie.librarySectionId = reader.getAttributeValue(null, "librarySectionID");
+        movie.title = reader.getAttributeValue(null, "title");
+        movie.originalTitle = reader.getAttributeValue(null, "originalTitle");
+        movie.year = reader.getAttributeValue(null, "year");
+        movie.art = reader.getAttributeValue(null, "art");
+        movie.thumb = reader.getAttributeValue(null, "thumb");
+        final String updatedAt = reader.getAttributeValue(null, "updatedAt");
+        movie.updatedAt = updatedAt == null ? null : Long.valueOf(updatedAt);
+        return movie;
+    }
+}
@@ -0,0 +1,84 @@
+package com.jlpz.plex.wallpapergenerator;
+
+/**
+ * Number of bytes that images in flight may take at the same time: a wallpaper reserves the estimated size of its
+ * rasters before decoding its sources (waiting while the budget is used up) and releases them as they are dropped, so
+ * that how many wallpapers are processed at once adapts to their size and to the heap instead of depending only on the
+ * number of threads. Buffers kept for reuse (pooled destinations, per-thread scratch buffers) aren't reserved: their
+ * bounded worst case is set aside from the configured budget when creating this one.
+ */
+class MemoryBudget {
+    private final long capacity;
+    private long used;
+    // Statistics since the last reset
+    private long peakUsed;
+    private long waitCount;
+    private long waitTime;
+
+    MemoryBudget(final long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Waits until the given number of bytes fits in the budget. A reservation bigger than the whole budget is granted
+     * once nothing else is reserved, rather than never.
+     */
+    synchronized void reserve(final long bytes) throws InterruptedException {
+        if (!this.fits(bytes)) {
+            this.waitCount++;
+            final long waitStart = System.nanoTime();
+            try {
+                while (!this.fits(bytes)) {
+                    this.wait();
+                }
+            } finally {
+                this.waitTime += System.nanoTime() - waitStart;
+            }
+        }
+        this.used += bytes;
+        this.peakUsed = Math.max(this.peakUsed, this.used);
+    }
+
+    private boolean fits(final long bytes) {
+        return this.used == 0 || this.used + bytes <= this.capacity;
+    }
+
+    synchronized void release(final long bytes) {
+        if (bytes > 0) {
+            this.used -= bytes;
+            this.notifyAll();
+        }
+    }
+
+    long getCapacity() {
+        return this.capacity;
+    }
+
+    synchronized long getUsed() {
+        return this.used;
+    }
+
+    synchronized long getPeakUsed() {
+        return this.peakUsed;
+    }
+
+    /**
+     * @return how many reservations had to wait
+     */
+    synchronized long getWaitCount() {
+        return this.waitCount;
+    }
+
+    /**
+     * @return in nanoseconds, the total time reservations waited
+     */
+    synchronized long getWaitTime() {
+        return this.waitTime;
+    }
+
+    synchronized void resetStatistics() {
+        this.peakUsed = this.used;
+        this.waitCount = 0;
+        this.waitTime = 0;
+    }
+}
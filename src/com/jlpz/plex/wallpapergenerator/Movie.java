@@ -0,0 +1,24 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Subset of a PLEX "Video" element (or "Directory" one for a show) which is needed to filter a movie (or show) and
+ * generate its wallpaper; everything else (e.g. roles, streams) is dropped while parsing.
+ */
+class Movie {
+    String ratingKey;
+    boolean show;
+    // Only provided when the movie is read on its own (i.e. not as part of a section)
+    String librarySectionId;
+    String title;
+    String originalTitle;
+    String year;
+    String art;
+    String thumb;
+    Long updatedAt;
+    // Files of a movie, folders of a show
+    final List<String> filePaths = new ArrayList<>();
+    final List<String> genres = new ArrayList<>();
+}
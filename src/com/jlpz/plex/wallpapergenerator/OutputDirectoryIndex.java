@@ -0,0 +1,95 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory view of the wallpapers ("&lt;title&gt;.&lt;ratingKey&gt;.&lt;format&gt;") present in the target directory,
+ * built with a single scan and then kept up to date as files are generated or deleted, instead of listing the
+ * directory for each movie. Other files may be in the directory too, hence only those named like wallpapers are
+ * indexed and - once a {@link SyncManifest} exists - only those it records are considered generated.
+ */
+class OutputDirectoryIndex {
+    // Sanitized title, possibly followed by the year, then the (numeric) rating key
+    private static final String FILE_NAME_PATTERN = "[\\p{javaLowerCase}\\d_]*(?: \\(\\d+\\))?\\.(\\d+)";
+
+    private final String extension;
+    private final Pattern fileNamePattern;
+    // Rating key => file name => last modification time
+    private final Map<String, Map<String, Long>> files = new HashMap<>();
+
+    OutputDirectoryIndex(final Path directory, final String format) throws IOException {
+        this.extension = "." + format;
+        this.fileNamePattern = Pattern.compile(FILE_NAME_PATTERN + Pattern.quote(this.extension));
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + this.extension)) {
+            for (final Path file : stream) {
+                final String id = this.getId(file.getFileName().toString());
+                if (id != null && Files.isRegularFile(file)) {
+                    this.added(id, file.getFileName().toString(), Files.getLastModifiedTime(file).toMillis());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the rating key contained in the name of the file, or {@code null} if it doesn't look like a wallpaper
+     */
+    private String getId(final String fileName) {
+        final Matcher matcher = this.fileNamePattern.matcher(fileName);
+        return matcher.matches() ? matcher.group(1) : null;
+    }
+
+    /**
+     * @return the last modification time of the file, or {@code null} if it doesn't exist
+     */
+    synchronized Long getLastModified(final String id, final String fileName) {
+        return this.files.getOrDefault(id, Collections.emptyMap()).get(fileName);
+    }
+
+    synchronized List<String> getFileNames(final String id) {
+        return new ArrayList<>(this.files.getOrDefault(id, Collections.emptyMap()).keySet());
+    }
+
+    /**
+     * @return the files of the movie which were generated, i.e. which may be deleted
+     */
+    synchronized List<String> getGeneratedFileNames(final String id, final SyncManifest manifest) {
+        final List<String> fileNames = this.getFileNames(id);
+        fileNames.removeIf(fileName -> !manifest.isGenerated(id, fileName));
+        return fileNames;
+    }
+
+    synchronized void added(final String id, final String fileName, final long lastModified) {
+        this.files.computeIfAbsent(id, key -> new HashMap<>()).put(fileName, lastModified);
+    }
+
+    synchronized void removed(final String id, final String fileName) {
+        final Map<String, Long> idFiles = this.files.get(id);
+        if (idFiles != null) {
+            idFiles.remove(fileName);
+            if (idFiles.isEmpty()) {
+                this.files.remove(id);
+            }
+        }
+    }
+
+    /**
+     * @return the rating keys which have generated files but aren't part of the given ones
+     */
+    synchronized List<String> getOrphanIds(final Set<String> ids, final SyncManifest manifest) {
+        final List<String> orphanIds = new ArrayList<>(this.files.keySet());
+        orphanIds.removeAll(ids);
+        orphanIds.removeIf(id -> this.getGeneratedFileNames(id, manifest).isEmpty());
+        return orphanIds;
+    }
+}
@@ -1,41 +1,100 @@
 package com.jlpz.plex.wallpapergenerator;
 
 import java.awt.Dimension;
-import java.awt.Graphics;
-import java.awt.Image;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.awt.image.RescaleOp;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.net.URL;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+import java.util.logging.StreamHandler;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.ImageOutputStream;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.io.FilenameUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
+import okhttp3.ConnectionPool;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
 
 public class PlexWallpaperGenerator {
+    static {
+        // One line per record (instead of two) unless configured otherwise
+        if (System.getProperty("java.util.logging.SimpleFormatter.format") == null) {
+            System.setProperty("java.util.logging.SimpleFormatter.format", "%1$tF %1$tT %4$s %5$s%6$s%n");
+        }
+        // Progress on the standard output stream and problems on the standard error one (instead of everything on the
+        // latter) unless configured otherwise
+        if (System.getProperty("java.util.logging.config.file") == null
+                && System.getProperty("java.util.logging.config.class") == null) {
+            final Logger rootLogger = Logger.getLogger("");
+            for (final Handler handler : rootLogger.getHandlers()) {
+                rootLogger.removeHandler(handler);
+            }
+            final Handler outputHandler = new StreamHandler(System.out, new SimpleFormatter()) {
+                @Override
+                public synchronized void publish(final LogRecord record) {
+                    super.publish(record);
+                    this.flush();
+                }
+
+                @Override
+                public synchronized void close() {
+                    // Like ConsoleHandler, the stream isn't closed as it's not this handler's
+                    this.flush();
+                }
+            };
+            outputHandler.setFilter(record -> record.getLevel().intValue() < Level.WARNING.intValue());
+            rootLogger.addHandler(outputHandler);
+            final Handler errorHandler = new ConsoleHandler();
+            errorHandler.setLevel(Level.WARNING);
+            rootLogger.addHandler(errorHandler);
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(PlexWallpaperGenerator.class.getName());
+
     private static enum Position {
         NONE, INTERNAL, EXTERNAL;
 
@@ -44,14 +103,281 @@ public class PlexWallpaperGenerator {
         }
     }
 
+    /**
+     * Settings of one of the variants (e.g. sizes) in which every wallpaper is generated.
+     */
+    static final class OutputProfile {
+        final String name;
+        // Relative to the directory of the target, null to generate in that directory itself
+        final String subdirectory;
+        final Dimension stillDimension;
+        final int posterHeight;
+        final int posterMargin;
+        final Position rightPosterPosition;
+        final Position leftPosterPosition;
+        final String format;
+        final ImageEncoder encoder;
+        final ImageCompositor compositor;
+        final String renderingFingerprint;
+
+        OutputProfile(final String name, final String subdirectory, final Dimension stillDimension,
+                final int posterHeight, final int posterMargin, final Position rightPosterPosition,
+                final Position leftPosterPosition, final float brightness, final String format, final float quality) {
+            this.name = name;
+            this.subdirectory = subdirectory;
+            this.stillDimension = stillDimension;
+            this.posterHeight = posterHeight;
+            this.posterMargin = posterMargin;
+            this.rightPosterPosition = rightPosterPosition;
+            this.leftPosterPosition = leftPosterPosition;
+            this.format = format;
+            this.encoder = new ImageEncoder(format, quality, PNG_COMPRESSION_LEVEL, JPEG_OPTIMIZED_HUFFMAN_TABLES,
+                    IMAGE_WRITER);
+            // One reusable destination per compositing worker: those waiting for or being encoded are in use (and
+            // accounted for in the memory budget), not idle in the pool. Posters being usually 2:3, destinations next
+            // to posters wider than square aren't kept.
+            this.compositor = new ImageCompositor(brightness, COMPOSITE_THREADS, this.getCombinedPixels(
+                    this.getPosterDimension() == null ? null : new Dimension(posterHeight, posterHeight)));
+            // Encoding options only change the size of the files (or the time to write them), not their pixels, hence
+            // aren't part of the rendering fingerprint
+            this.renderingFingerprint = Hashes.sha256(String.join("\n", format, String.valueOf(quality),
+                    String.valueOf(brightness), String.valueOf(posterHeight), String.valueOf(posterMargin),
+                    rightPosterPosition.name(), leftPosterPosition.name(), String.valueOf(stillDimension.width),
+                    String.valueOf(stillDimension.height), RESIZE_KERNEL.name(), String.valueOf(RESIZE_PROGRESSIVE),
+                    String.valueOf(FULL_RESOLUTION_DECODING), String.valueOf(SERVER_TRANSCODING)));
+        }
+
+        /**
+         * @return the dimension to request for the poster (see {@link PlexWallpaperGenerator#decodeAndResize}), or
+         *         {@code null} if there's no poster
+         */
+        Dimension getPosterDimension() {
+            if (this.rightPosterPosition == Position.NONE && this.leftPosterPosition == Position.NONE) {
+                return null;
+            }
+            return new Dimension(-1, this.posterHeight);
+        }
+
+        private long getCombinedPixels(final Dimension posterDimension) {
+            final Dimension combinedDimension = this.getCombinedDimension(this.stillDimension, posterDimension);
+            return (long) combinedDimension.width * combinedDimension.height;
+        }
+
+        /**
+         * @param posterDimension {@code null} if there's no poster
+         */
+        Dimension getCombinedDimension(final Dimension stillDimension, final Dimension posterDimension) {
+            // TODO Make the layout of the combined image configurable #ConfigurableLayout
+            final int posterWidth = posterDimension == null ? 0 : 2 * this.posterMargin + posterDimension.width;
+            final int posterHeight = posterDimension == null ? 0 : 2 * this.posterMargin + posterDimension.height;
+            return new Dimension(
+                    stillDimension.width + (this.rightPosterPosition == Position.EXTERNAL ? posterWidth : 0)
+                            + (this.leftPosterPosition == Position.EXTERNAL ? posterWidth : 0),
+                    Math.max(posterHeight, stillDimension.height));
+        }
+    }
+
+    /**
+     * Part of a source image decoded by {@link PlexWallpaperGenerator#decode}, before it is resized.
+     */
+    private static final class DecodedImage {
+        final BufferedImage image;
+        final Dimension sourceDimension;
+        // Area of the source which was decoded, one row/column out of "subsampling"
+        final Rectangle region;
+        final int subsampling;
+
+        DecodedImage(final BufferedImage image, final Dimension sourceDimension, final Rectangle region,
+                final int subsampling) {
+            this.image = image;
+            this.sourceDimension = sourceDimension;
+            this.region = region;
+            this.subsampling = subsampling;
+        }
+    }
+
+    /**
+     * Wallpapers of an output profile present in its directory (for a given target) and what was generated there.
+     */
+    static final class ProfileDirectory {
+        final OutputProfile profile;
+        final File location;
+        final OutputDirectoryIndex outputIndex;
+        final SyncManifest manifest;
+
+        ProfileDirectory(final OutputProfile profile, final File location, final OutputDirectoryIndex outputIndex,
+                final SyncManifest manifest) {
+            this.profile = profile;
+            this.location = location;
+            this.outputIndex = outputIndex;
+            this.manifest = manifest;
+        }
+    }
+
+    /**
+     * Library section of a PLEX server from which wallpapers are generated in a directory of their own, along with the
+     * outcome and measures of its current (or last) synchronization/refresh.
+     */
+    static final class Target {
+        final String name;
+        final String serverUrl;
+        final String authenticationToken;
+        final String libraryId;
+        final String selectionFingerprint;
+        final List<ProfileDirectory> directories;
+        final Path reportPath;
+        // Prepended to the messages about the target when there are several ones
+        final String logPrefix;
+        final AtomicBoolean warnings = new AtomicBoolean(false);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        volatile RunMetrics metrics;
+        // Machine identifier of the server, null until known
+        volatile String serverIdentifier;
+        // Number of jobs submitted to the pipeline but not completed/failed yet
+        private int pendingJobs;
+
+        Target(final String name, final String serverUrl, final String authenticationToken, final String libraryId,
+                final List<ProfileDirectory> directories, final Path reportPath, final String logPrefix) {
+            this.name = name;
+            this.serverUrl = serverUrl;
+            this.authenticationToken = authenticationToken;
+            this.libraryId = libraryId;
+            this.selectionFingerprint = Hashes.sha256(String.join("\n", serverUrl, libraryId,
+                    String.join(";", new TreeSet<>(Arrays.asList(FORBIDDEN_KEYWORDS))),
+                    String.join(";", new TreeSet<>(MANDATORY_GENRES)), String.valueOf(MANDATORY_FILE_PATH_PATTERN)));
+            this.directories = directories;
+            this.reportPath = reportPath;
+            this.logPrefix = logPrefix;
+            this.metrics = new RunMetrics(name, "none");
+        }
+
+        /**
+         * Starts a synchronization/refresh of the target.
+         */
+        void reset(final RunMetrics metrics) {
+            this.warnings.set(false);
+            this.failure.set(null);
+            this.metrics = metrics;
+        }
+
+        synchronized void submitted() {
+            this.pendingJobs++;
+        }
+
+        synchronized void finished() {
+            this.pendingJobs--;
+            if (this.pendingJobs == 0) {
+                this.notifyAll();
+            }
+        }
+
+        /**
+         * Waits until every job of the target went through the pipeline.
+         */
+        synchronized void awaitIdle() throws InterruptedException {
+            while (this.pendingJobs > 0) {
+                this.wait();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private static interface TargetTask {
+        void run(Target target) throws Exception;
+    }
+
+    /**
+     * Resources shared by successive synchronizations (a single one unless in daemon mode) of every target: HTTP
+     * client, image cache, memory budget and pipeline (hence encoders and compositors).
+     */
+    static final class Engine {
+        final OkHttpClient client;
+        final ImageFetcher fetcher;
+        final List<Target> targets;
+        // Within the MEMORY_BUDGET, what images in flight may take besides buffers kept for reuse
+        final MemoryBudget memoryBudget;
+        final WallpaperPipeline pipeline;
+
+        Engine(final OkHttpClient client, final ImageFetcher fetcher, final List<Target> targets) {
+            this.client = client;
+            this.fetcher = fetcher;
+            this.targets = targets;
+            final long retainedBytes = PlexWallpaperGenerator.getRetainedBufferBytes();
+            this.memoryBudget = new MemoryBudget(Math.max(0L, MEMORY_BUDGET - retainedBytes));
+            if (retainedBytes > MEMORY_BUDGET / 2) {
+                LOGGER.warning("Buffers kept for reuse may take " + retainedBytes / (1024 * 1024)
+                        + " MB out of the memory budget of " + MEMORY_BUDGET / (1024 * 1024)
+                        + " MB, leaving little room for images in flight (consider raising MEMORY_BUDGET along with"
+                        + " the maximum heap size, or lowering COMPOSITE_THREADS)");
+            }
+            this.pipeline = new WallpaperPipeline(QUEUE_CAPACITY, new WallpaperPipeline.Listener() {
+                @Override
+                public void completed(final WallpaperJob job) {
+                    Engine.this.releaseImages(job);
+                    job.target.metrics.generated(job.id, job.title, job.stageTimes,
+                            System.nanoTime() - job.createdAt);
+                    LOGGER.info(job.target.logPrefix + (job.index + 1) + ". " + job.title);
+                    job.target.finished();
+                }
+
+                @Override
+                public void failed(final WallpaperJob job, final Throwable throwable) {
+                    Engine.this.releaseImages(job);
+                    job.target.metrics.failed();
+                    if (throwable instanceof IOException || throwable instanceof NullPointerException) {
+                        LOGGER.log(Level.WARNING,
+                                job.target.logPrefix + "Error while trying to handle: " + job.title, throwable);
+                        job.target.warnings.set(true);
+                    } else {
+                        job.target.failure.compareAndSet(null, throwable);
+                    }
+                    job.target.finished();
+                }
+            }).addStage("fetch", FETCH_THREADS, job -> PlexWallpaperGenerator.fetchImages(this, job))
+                    .addStage("decode", DECODE_THREADS, job -> PlexWallpaperGenerator.resizeImages(this, job))
+                    .addStage("composite", COMPOSITE_THREADS, job -> {
+                        PlexWallpaperGenerator.combineImages(this, job);
+                        this.releaseResizedImages(job);
+                    }).addStage("encode", ENCODE_THREADS, job -> PlexWallpaperGenerator.writeCombinedImages(this, job));
+        }
+
+        /**
+         * Waits until every submitted job is done, then releases the resources of the encoders.
+         */
+        void close() throws InterruptedException {
+            this.pipeline.awaitCompletion();
+            for (final OutputProfile profile : OUTPUT_PROFILES) {
+                profile.encoder.dispose();
+            }
+        }
+
+        void releaseResizedImages(final WallpaperJob job) {
+            this.memoryBudget.release(job.resizedImagesBytes);
+            job.resizedImagesBytes = 0;
+        }
+
+        void releaseImages(final WallpaperJob job) {
+            this.releaseResizedImages(job);
+            this.memoryBudget.release(job.combinedImagesBytes);
+            job.combinedImagesBytes = 0;
+        }
+    }
+
     private static final String TARGET_DIRECTORY_PATH = PlexWallpaperGenerator.getMandatorySingleSystemProperty(
             "TARGET_DIRECTORY_PATH", "Full path of the directory where the wallpaper images will be generated");
-    private static final String SERVER_URL = PlexWallpaperGenerator.getMandatorySingleSystemProperty("SERVER_URL",
+    private static final String DEFAULT_TARGET_NAME = "default";
+    private static final String[] TARGET_NAMES = PlexWallpaperGenerator.getOptionalMultipleSystemProperty("TARGETS",
+            "Names of the libraries (of movies or TV shows, possibly on different servers) to generate wallpapers from in a single run, processed concurrently while sharing connections, cache and processing threads. Each target is generated in its own subdirectory of the target directory (named after the target unless a system property "
+                    + PlexWallpaperGenerator.class.getName()
+                    + ".<target>.SUBDIRECTORY is provided) and takes its settings SERVER_URL, AUTHENTICATION_TOKEN, LIBRARY_ID and RUN_REPORT_PATH from system properties prefixed with its name (e.g. "
+                    + PlexWallpaperGenerator.class.getName()
+                    + ".shows.LIBRARY_ID) or else from the ones without prefix (a single library being synchronized in the target directory itself by default)");
+    private static final String SERVER_URL = PlexWallpaperGenerator.getTargetDefaultSystemProperty("SERVER_URL",
             "Root URL of the PLEX server (e.g. \"http://192.168.0.1:32400\")");
-    private static final String AUTHENTICATION_TOKEN = PlexWallpaperGenerator.getMandatorySingleSystemProperty(
+    private static final String AUTHENTICATION_TOKEN = PlexWallpaperGenerator.getTargetDefaultSystemProperty(
             "AUTHENTICATION_TOKEN",
             "X-Plex-Token to use to authenticate on the PLEX server (see https://support.plex.tv/articles/204059436-finding-an-authentication-token-x-plex-token/)");
-    private static final String LIBRARY_ID = PlexWallpaperGenerator.getMandatorySingleSystemProperty("LIBRARY_ID",
+    private static final String LIBRARY_ID = PlexWallpaperGenerator.getTargetDefaultSystemProperty("LIBRARY_ID",
             "Section ID of the library you want to generate wallpapers from (you can find it in the attribute \"librarySectionID\" of the same XML page used to retrieve the X-Plex-Token)");
     private static final String[] FORBIDDEN_KEYWORDS = PlexWallpaperGenerator.getOptionalMultipleSystemProperty(
             "FORBIDDEN_KEYWORDS",
@@ -65,7 +391,7 @@ public class PlexWallpaperGenerator {
                     + "\" to simulate the process without actually generating/deleting any images"));
     private static final String MANDATORY_FILE_PATH_PATTERN = PlexWallpaperGenerator.getOptionalSingleSystemProperty(
             "MANDATORY_FILE_PATH_PATTERN",
-            "Wildcard pattern (i.e. which may use the characters '?' and '*' to represent respectively a single or multiple (zero or more) unspecified characters) that file path of movies must respect for them to be processed");
+            "Wildcard pattern (i.e. which may use the characters '?' and '*' to represent respectively a single or multiple (zero or more) unspecified characters) that file path of movies (or folder of shows, which costs a request per show) must respect for them to be processed");
     private static final String IMAGE_FORMAT_DEFAULT = "JPG";
     private static final String IMAGE_FORMAT = Optional
             .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("IMAGE_FORMAT",
@@ -125,15 +451,174 @@ public class PlexWallpaperGenerator {
             .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("STILL_WIDTH",
                     "Width of the still photo in pixel (default being \"" + STILL_WIDTH_DEFAULT + "\")"))
             .orElse(STILL_WIDTH_DEFAULT));
-    private static final Dimension STILL_DIMENSION = new Dimension(STILL_WIDTH, STILL_HEIGHT);
     // TODO see #ConfigurableLayout
+    private static final String FETCH_THREADS_DEFAULT = "4";
+    private static final int FETCH_THREADS = Integer.valueOf(Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("FETCH_THREADS",
+                    "Number of threads downloading images from the PLEX server (default being \""
+                            + FETCH_THREADS_DEFAULT + "\")"))
+            .orElse(FETCH_THREADS_DEFAULT));
+    private static final String PROCESSING_THREADS_DEFAULT = String.valueOf(Runtime.getRuntime().availableProcessors());
+    private static final int DECODE_THREADS = Integer.valueOf(Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("DECODE_THREADS",
+                    "Number of threads decoding and resizing downloaded images (default being the number of processors, i.e. \""
+                            + PROCESSING_THREADS_DEFAULT + "\")"))
+            .orElse(PROCESSING_THREADS_DEFAULT));
+    private static final int COMPOSITE_THREADS = Integer.valueOf(Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("COMPOSITE_THREADS",
+                    "Number of threads combining resized images into wallpapers (default being the number of processors, i.e. \""
+                            + PROCESSING_THREADS_DEFAULT + "\")"))
+            .orElse(PROCESSING_THREADS_DEFAULT));
+    private static final int ENCODE_THREADS = Integer.valueOf(Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("ENCODE_THREADS",
+                    "Number of threads encoding and writing wallpapers (default being the number of processors, i.e. \""
+                            + PROCESSING_THREADS_DEFAULT + "\")"))
+            .orElse(PROCESSING_THREADS_DEFAULT));
+    private static final String QUEUE_CAPACITY_DEFAULT = "8";
+    private static final int QUEUE_CAPACITY = Integer.valueOf(Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("QUEUE_CAPACITY",
+                    "Maximum number of movies waiting in front of each processing stage (default being \""
+                            + QUEUE_CAPACITY_DEFAULT + "\")"))
+            .orElse(QUEUE_CAPACITY_DEFAULT));
+    private static final String MEMORY_BUDGET_DEFAULT = String
+            .valueOf(Runtime.getRuntime().maxMemory() / 2 / (1024L * 1024L));
+    private static final long MEMORY_BUDGET = Long.valueOf(Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("MEMORY_BUDGET",
+                    "Size in MB of the heap that images may take, i.e. the buffers kept for reuse (one wallpaper per compositing thread and output profile, and up to 32 MB of resizing buffers per decoding thread, set aside first) and the images of the movies being processed at the same time, movies waiting before being decoded while it's used up. The rest of the heap must hold downloaded images and encoders, hence half the maximum heap size is safe, e.g. 256 MB for -Xmx512m (default being half the maximum heap size, i.e. \""
+                            + MEMORY_BUDGET_DEFAULT + "\")"))
+            .orElse(MEMORY_BUDGET_DEFAULT)) * 1024L * 1024L;
+    private static final boolean DELETE_ORPHANS = Boolean.valueOf(PlexWallpaperGenerator
+            .getOptionalSingleSystemProperty("DELETE_ORPHANS", "\"" + Boolean.TRUE.toString()
+                    + "\" to delete - once all movies are handled - the images of movies which aren't in the library anymore"));
+    private static final String PAGE_SIZE_DEFAULT = "500";
+    private static final int PAGE_SIZE = Integer.valueOf(Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("PAGE_SIZE",
+                    "Number of movies to request from the PLEX server at once (default being \"" + PAGE_SIZE_DEFAULT
+                            + "\")"))
+            .orElse(PAGE_SIZE_DEFAULT));
+    private static final String RESIZE_KERNEL_DEFAULT = ImageResampler.Kernel.LANCZOS3.name();
+    private static final ImageResampler.Kernel RESIZE_KERNEL = ImageResampler.Kernel.valueOf(Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("RESIZE_KERNEL",
+                    "Filter to use to resize images (possible values being "
+                            + String.join("/", ImageResampler.Kernel.names()) + " and default being \""
+                            + RESIZE_KERNEL_DEFAULT + "\")"))
+            .orElse(RESIZE_KERNEL_DEFAULT).toUpperCase());
+    private static final boolean RESIZE_PROGRESSIVE = Boolean.valueOf(PlexWallpaperGenerator
+            .getOptionalSingleSystemProperty("RESIZE_PROGRESSIVE", "\"" + Boolean.TRUE.toString()
+                    + "\" to halve images as long as they're at least twice as big as needed before applying the resize filter (faster but slightly blurrier)"));
+    // Decoding threads retain at most a quarter of the memory budget, and 32 MB each (enough to resize a 4K still)
+    private static final ImageResampler RESAMPLER = new ImageResampler(RESIZE_KERNEL, RESIZE_PROGRESSIVE,
+            Math.min(32L * 1024L * 1024L, MEMORY_BUDGET / 4 / DECODE_THREADS));
+    private static final boolean FULL_RESOLUTION_DECODING = Boolean.valueOf(PlexWallpaperGenerator
+            .getOptionalSingleSystemProperty("FULL_RESOLUTION_DECODING", "\"" + Boolean.TRUE.toString()
+                    + "\" to decode every pixel of downloaded images instead of skipping rows/columns of those which are more than four times as big as needed (slower but slightly sharper)"));
+    private static final boolean SERVER_TRANSCODING = Boolean.valueOf(PlexWallpaperGenerator
+            .getOptionalSingleSystemProperty("SERVER_TRANSCODING", "\"" + Boolean.TRUE.toString()
+                    + "\" to download images already resized by the photo transcoder of the PLEX server (much less data to transfer and decode), falling back to the original images if it fails"));
+    private static final Integer PNG_COMPRESSION_LEVEL = Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("PNG_COMPRESSION_LEVEL",
+                    "Deflate level from 0 (fastest) to 9 (smallest files) to use when generating PNG images (default being derived from the quality)"))
+            .map(Integer::valueOf).orElse(null);
+    private static final boolean JPEG_OPTIMIZED_HUFFMAN_TABLES = Boolean.valueOf(PlexWallpaperGenerator
+            .getOptionalSingleSystemProperty("JPEG_OPTIMIZED_HUFFMAN_TABLES", "\"" + Boolean.TRUE.toString()
+                    + "\" to compute optimal Huffman tables for each JPG image (smaller files but slower encoding)"));
+    private static final String IMAGE_WRITER = PlexWallpaperGenerator.getOptionalSingleSystemProperty("IMAGE_WRITER",
+            "Class name of the ImageIO writer to use when several are available for the image format (default being the first one registered)");
+    private static final String DEFAULT_OUTPUT_PROFILE_NAME = "default";
+    private static final String[] OUTPUT_PROFILE_NAMES = PlexWallpaperGenerator.getOptionalMultipleSystemProperty(
+            "OUTPUT_PROFILES",
+            "Names of the profiles in which to generate each wallpaper (e.g. in several sizes), all of them rendered from a single download and decoding of the images. Each profile is generated in its own subdirectory of the target directory (named after the profile unless a system property "
+                    + PlexWallpaperGenerator.class.getName()
+                    + ".<profile>.SUBDIRECTORY is provided) and takes its settings STILL_WIDTH, STILL_HEIGHT, POSTER_HEIGHT, POSTER_MARGIN, RIGHT_POSTER_POSITION, LEFT_POSTER_POSITION, IMAGE_DARKNESS, IMAGE_FORMAT and IMAGE_QUALITY from system properties prefixed with its name (e.g. "
+                    + PlexWallpaperGenerator.class.getName()
+                    + ".phone.STILL_WIDTH) or else from the ones without prefix (a single profile being generated in the target directory itself by default)");
+    static final List<OutputProfile> OUTPUT_PROFILES = PlexWallpaperGenerator.createOutputProfiles();
+    private static final String MANIFEST_FILE_NAME = ".wallpapers.manifest";
+    private static final boolean FULL_SYNC = Boolean.valueOf(PlexWallpaperGenerator.getOptionalSingleSystemProperty(
+            "FULL_SYNC", "\"" + Boolean.TRUE.toString()
+                    + "\" to list the whole library even though only movies updated since the last sync could be listed"));
+    private static final String INCREMENTAL_SYNC_MARGIN_DEFAULT = "3600";
+    private static final long INCREMENTAL_SYNC_MARGIN = Long.valueOf(Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("INCREMENTAL_SYNC_MARGIN",
+                    "Number of seconds before the start of the last sync from which updated movies are listed, to make up for clock differences with the PLEX server (default being \""
+                            + INCREMENTAL_SYNC_MARGIN_DEFAULT + "\")"))
+            .orElse(INCREMENTAL_SYNC_MARGIN_DEFAULT));
+    private static final boolean DAEMON = Boolean.valueOf(PlexWallpaperGenerator.getOptionalSingleSystemProperty(
+            "DAEMON", "\"" + Boolean.TRUE.toString()
+                    + "\" to keep running and regenerate wallpapers as the library changes (see POLL_INTERVAL and WEBHOOK_PORT)"));
+    private static final String POLL_INTERVAL_DEFAULT = "3600";
+    private static final long POLL_INTERVAL = Long.valueOf(Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("POLL_INTERVAL",
+                    "Number of seconds between two synchronizations in daemon mode, \"0\" to only synchronize at start (default being \""
+                            + POLL_INTERVAL_DEFAULT + "\")"))
+            .orElse(POLL_INTERVAL_DEFAULT));
+    private static final Integer WEBHOOK_PORT = Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("WEBHOOK_PORT",
+                    "Port on which to listen to PLEX webhooks in daemon mode (e.g. \"32500\" for a webhook URL like \"http://<host>:32500/?secret=<WEBHOOK_SECRET>\"; webhooks being ignored by default)"))
+            .map(Integer::valueOf).orElse(null);
+    private static final String WEBHOOK_ADDRESS_DEFAULT = InetAddress.getLoopbackAddress().getHostAddress();
+    private static final String WEBHOOK_ADDRESS = Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("WEBHOOK_ADDRESS",
+                    "Address of the network interface on which to listen to PLEX webhooks, e.g. \"0.0.0.0\" for all of them if the PLEX server runs on another host (default being the loopback one, i.e. \""
+                            + WEBHOOK_ADDRESS_DEFAULT + "\")"))
+            .orElse(WEBHOOK_ADDRESS_DEFAULT);
+    private static final String WEBHOOK_SECRET = PlexWallpaperGenerator.getOptionalSingleSystemProperty(
+            "WEBHOOK_SECRET",
+            "Secret that webhook URLs must provide as their \"secret\" query parameter for notifications to be taken into account (mandatory along with WEBHOOK_PORT)");
+    private static final String WEBHOOK_DEBOUNCE_DELAY_DEFAULT = "30";
+    private static final long WEBHOOK_DEBOUNCE_DELAY = Long.valueOf(Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("WEBHOOK_DEBOUNCE_DELAY",
+                    "Number of seconds without webhook notification to wait for before regenerating the notified movies (default being \""
+                            + WEBHOOK_DEBOUNCE_DELAY_DEFAULT + "\")"))
+            .orElse(WEBHOOK_DEBOUNCE_DELAY_DEFAULT));
+    private static final String HTTP_MAX_IDLE_CONNECTIONS_DEFAULT = "16";
+    private static final int HTTP_MAX_IDLE_CONNECTIONS = Integer.valueOf(Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("HTTP_MAX_IDLE_CONNECTIONS",
+                    "Number of connections to the PLEX server kept open for reuse (default being \""
+                            + HTTP_MAX_IDLE_CONNECTIONS_DEFAULT + "\")"))
+            .orElse(HTTP_MAX_IDLE_CONNECTIONS_DEFAULT));
+    private static final String HTTP_MAX_REQUESTS_PER_HOST_DEFAULT = "4";
+    private static final int HTTP_MAX_REQUESTS_PER_HOST = Integer.valueOf(Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("HTTP_MAX_REQUESTS_PER_HOST",
+                    "Maximum number of images downloaded simultaneously from a same server (default being \""
+                            + HTTP_MAX_REQUESTS_PER_HOST_DEFAULT + "\")"))
+            .orElse(HTTP_MAX_REQUESTS_PER_HOST_DEFAULT));
+    private static final String HTTP_CONNECT_TIMEOUT_DEFAULT = "10";
+    private static final int HTTP_CONNECT_TIMEOUT = Integer.valueOf(Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("HTTP_CONNECT_TIMEOUT",
+                    "Timeout in seconds to connect to the PLEX server (default being \"" + HTTP_CONNECT_TIMEOUT_DEFAULT
+                            + "\")"))
+            .orElse(HTTP_CONNECT_TIMEOUT_DEFAULT));
+    private static final String HTTP_READ_TIMEOUT_DEFAULT = "60";
+    private static final int HTTP_READ_TIMEOUT = Integer.valueOf(Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("HTTP_READ_TIMEOUT",
+                    "Timeout in seconds when waiting for data from the PLEX server (default being \""
+                            + HTTP_READ_TIMEOUT_DEFAULT + "\")"))
+            .orElse(HTTP_READ_TIMEOUT_DEFAULT));
+    private static final String IMAGE_CACHE_DIRECTORY_PATH = PlexWallpaperGenerator.getOptionalSingleSystemProperty(
+            "IMAGE_CACHE_DIRECTORY_PATH",
+            "Full path of a directory where to cache the original images downloaded from the PLEX server (no cache being used by default)");
+    private static final String IMAGE_CACHE_MAX_SIZE_DEFAULT = "2048";
+    private static final long IMAGE_CACHE_MAX_SIZE = Long.valueOf(Optional
+            .ofNullable(PlexWallpaperGenerator.getOptionalSingleSystemProperty("IMAGE_CACHE_MAX_SIZE",
+                    "Size in MB above which the least recently used images are removed from the cache (default being \""
+                            + IMAGE_CACHE_MAX_SIZE_DEFAULT + "\")"))
+            .orElse(IMAGE_CACHE_MAX_SIZE_DEFAULT)) * 1024L * 1024L;
+    private static final String RUN_REPORT_FILE_NAME = ".wallpapers.report.json";
+    private static final String RUN_REPORT_PATH = PlexWallpaperGenerator.getOptionalSingleSystemProperty(
+            "RUN_REPORT_PATH",
+            "Full path of the JSON file where to write the report (durations of each stage, skipped movies, slowest movies, etc) of each synchronization/refresh (default being \""
+                    + RUN_REPORT_FILE_NAME + "\" in the directory of the target)");
+    private static final String PROMETHEUS_TEXTFILE_PATH = PlexWallpaperGenerator.getOptionalSingleSystemProperty(
+            "PROMETHEUS_TEXTFILE_PATH",
+            "Full path of the file where to write the metrics of the last synchronization/refresh of every target in the Prometheus text format, e.g. a \"*.prom\" file in the directory of the textfile collector of the node exporter (no such file being written by default)");
 
     private static String getMandatorySingleSystemProperty(final String shortName,
             final String helpDescriptionIfAbsent) {
         final String fullName = PlexWallpaperGenerator.class.getName() + "." + shortName;
         final String value = System.getProperty(fullName);
         if (value == null) {
-            System.err.println(
+            LOGGER.severe(
                     "A system property " + fullName + " is required (e.g. by passing a command-line argument \"-D"
                             + fullName + "=<value>\"). Its value should be: " + helpDescriptionIfAbsent);
         }
@@ -146,7 +631,7 @@ public class PlexWallpaperGenerator {
         final String fullName = PlexWallpaperGenerator.class.getName() + "." + shortName;
         final String value = System.getProperty(fullName);
         if (value == null || value.strip().length() == 0) {
-            System.err.println("Note that a system property " + fullName
+            LOGGER.info("Note that a system property " + fullName
                     + " can be provided (e.g. by passing a command-line argument \"-D" + fullName
                     + "=<value>\"). Its value would be: " + helpDescriptionIfAbsent);
             return null;
@@ -159,7 +644,7 @@ public class PlexWallpaperGenerator {
         final String fullName = PlexWallpaperGenerator.class.getName() + "." + shortName;
         final String value = System.getProperty(fullName);
         if (value == null || value.strip().length() == 0) {
-            System.out.println("Note that a system property " + fullName
+            LOGGER.info("Note that a system property " + fullName
                     + " can be provided (e.g. by passing a command-line argument \"-D" + fullName
                     + "=<value1>;...;<valueN>\"). Its values would be: " + helpDescriptionIfAbsent);
             return new String[0];
@@ -167,12 +652,60 @@ public class PlexWallpaperGenerator {
         return value.toLowerCase().split(";");
     }
 
-    private static String getFullUrl(final String uri) {
-        final String url = SERVER_URL + uri + "?X-Plex-Token=" + AUTHENTICATION_TOKEN;
+    /**
+     * @return the value of the system property overriding the given setting for the given output profile or target,
+     *         or {@code null} if there's none
+     */
+    private static String getNamedSystemProperty(final String name, final String shortName) {
+        final String value = System.getProperty(PlexWallpaperGenerator.class.getName() + "." + name + "." + shortName);
+        return value == null || value.strip().length() == 0 ? null : value;
+    }
+
+    /**
+     * Same as {@link #getMandatorySingleSystemProperty} unless there are TARGETS, which may each provide their own
+     * value instead.
+     */
+    private static String getTargetDefaultSystemProperty(final String shortName,
+            final String helpDescriptionIfAbsent) {
+        if (TARGET_NAMES.length == 0) {
+            return PlexWallpaperGenerator.getMandatorySingleSystemProperty(shortName, helpDescriptionIfAbsent);
+        }
+        return PlexWallpaperGenerator.getOptionalSingleSystemProperty(shortName, helpDescriptionIfAbsent);
+    }
+
+    private static List<OutputProfile> createOutputProfiles() {
+        if (OUTPUT_PROFILE_NAMES.length == 0) {
+            return Collections.singletonList(new OutputProfile(DEFAULT_OUTPUT_PROFILE_NAME, null,
+                    new Dimension(STILL_WIDTH, STILL_HEIGHT), POSTER_HEIGHT, POSTER_MARGIN, RIGHT_POSTER_POSITION,
+                    LEFT_POSTER_POSITION, IMAGE_BRIGHTNESS, IMAGE_FORMAT, IMAGE_QUALITY));
+        }
+        final List<OutputProfile> profiles = new ArrayList<>();
+        for (final String name : new LinkedHashSet<>(Arrays.asList(OUTPUT_PROFILE_NAMES))) {
+            final Function<String, Optional<String>> property = shortName -> Optional
+                    .ofNullable(PlexWallpaperGenerator.getNamedSystemProperty(name, shortName));
+            profiles.add(new OutputProfile(name, property.apply("SUBDIRECTORY").orElse(name),
+                    new Dimension(property.apply("STILL_WIDTH").map(Integer::valueOf).orElse(STILL_WIDTH),
+                            property.apply("STILL_HEIGHT").map(Integer::valueOf).orElse(STILL_HEIGHT)),
+                    property.apply("POSTER_HEIGHT").map(Integer::valueOf).orElse(POSTER_HEIGHT),
+                    property.apply("POSTER_MARGIN").map(Integer::valueOf).orElse(POSTER_MARGIN),
+                    property.apply("RIGHT_POSTER_POSITION").map(Position::valueOf).orElse(RIGHT_POSTER_POSITION),
+                    property.apply("LEFT_POSTER_POSITION").map(Position::valueOf).orElse(LEFT_POSTER_POSITION),
+                    property.apply("IMAGE_DARKNESS").map(darkness -> (100 - Integer.valueOf(darkness)) / 100f)
+                            .orElse(IMAGE_BRIGHTNESS),
+                    property.apply("IMAGE_FORMAT").map(String::toLowerCase).orElse(IMAGE_FORMAT),
+                    property.apply("IMAGE_QUALITY").map(quality -> Integer.valueOf(quality) / 100f)
+                            .orElse(IMAGE_QUALITY)));
+        }
+        return profiles;
+    }
+
+    private static String getFullUrl(final Target target, final String uri) {
+        final String url = target.serverUrl + uri + (uri.contains("?") ? "&" : "?") + "X-Plex-Token="
+                + target.authenticationToken;
         return url;
     }
 
-    private static Image resizeImage(final BufferedImage image, final int width, final int height) {
+    static BufferedImage resizeImage(final BufferedImage image, final int width, final int height) {
         if (image == null) {
             throw new NullPointerException("No image to resize.");
         }
@@ -181,113 +714,521 @@ public class PlexWallpaperGenerator {
             return image;
         }
 
-        if (width == -1) {
-            return image.getScaledInstance(image.getWidth() * height / image.getHeight(), height, Image.SCALE_SMOOTH);
+        final Rectangle crop = PlexWallpaperGenerator.getCrop(image.getWidth(), image.getHeight(), width, height);
+        final Dimension targetDimension = PlexWallpaperGenerator.getTargetDimension(crop, width, height);
+        return RESAMPLER.resample(image, crop.x, crop.y, crop.width, crop.height, targetDimension.width,
+                targetDimension.height);
+    }
+
+    /**
+     * @param width -1 to follow the height (i.e. to keep the whole image)
+     * @param height -1 to follow the width (i.e. to keep the whole image)
+     * @return the centered area of the image which has the aspect ratio of the target
+     */
+    private static Rectangle getCrop(final int imageWidth, final int imageHeight, final int width, final int height) {
+        if (width == -1 || height == -1) {
+            return new Rectangle(0, 0, imageWidth, imageHeight);
+        }
+        final Point cropOrigin = new Point(0, 0);
+        Dimension cropDimension = new Dimension(imageWidth, height * imageWidth / width);
+        if (cropDimension.height < imageHeight) {
+            cropOrigin.y = (imageHeight - cropDimension.height) / 2;
+        } else {
+            cropDimension = new Dimension(width * imageHeight / height, imageHeight);
+            cropOrigin.x = (imageWidth - cropDimension.width) / 2;
         }
+        return new Rectangle(cropOrigin, cropDimension);
+    }
 
+    private static Dimension getTargetDimension(final Rectangle crop, final int width, final int height) {
+        if (width == -1) {
+            return new Dimension(crop.width * height / crop.height, height);
+        }
         if (height == -1) {
-            return image.getScaledInstance(width, image.getHeight() * width / image.getWidth(), Image.SCALE_SMOOTH);
+            return new Dimension(width, crop.height * width / crop.width);
         }
+        return new Dimension(width, height);
+    }
 
-        final Point cropOrigin = new Point(0, 0);
-        Dimension cropDimension = new Dimension(image.getWidth(), height * image.getWidth() / width);
-        if (cropDimension.height < image.getHeight()) {
-            cropOrigin.y = (image.getHeight() - cropDimension.height) / 2;
-        } else {
-            cropDimension = new Dimension(width * image.getHeight() / height, image.getHeight());
-            cropOrigin.x = (image.getWidth() - cropDimension.width) / 2;
+    /**
+     * @return whether the existing wallpaper was generated from the current sources with the current settings
+     */
+    private static boolean isUpToDate(final ProfileDirectory directory, final String id, final File targetFile,
+            final long targetLastModified, final long updatedAt, final String stillPath, final String posterPath)
+            throws IOException {
+        final SyncManifest manifest = directory.manifest;
+        final String renderingFingerprint = directory.profile.renderingFingerprint;
+        final SyncManifest.Entry entry = manifest.get(id);
+        if (entry == null) {
+            if (manifest.isExisting() || targetLastModified <= updatedAt * 1000L) {
+                return false;
+            }
+            // Generated before manifests existed: trust its modification time (and current settings) one last time
+            manifest.put(id, new SyncManifest.Entry(updatedAt, stillPath, posterPath, renderingFingerprint,
+                    targetFile.getName(), targetLastModified, null));
+            return true;
+        }
+        if (!entry.fileName.equals(targetFile.getName())
+                || !entry.matches(updatedAt, stillPath, posterPath, renderingFingerprint)) {
+            return false;
         }
-        return image.getSubimage(cropOrigin.x, cropOrigin.y, cropDimension.width, cropDimension.height)
-                .getScaledInstance(width, height, Image.SCALE_SMOOTH);
+        if (entry.fileModified == targetLastModified) {
+            return true;
+        }
+        // Touched or copied since generated: only its content tells whether it's still the right one
+        if (entry.outputHash == null) {
+            return false;
+        }
+        final String outputHash;
+        // Read as a File (rather than a Path) since titles may not be representable in the file system encoding
+        try (InputStream input = new FileInputStream(targetFile)) {
+            outputHash = Hashes.sha256(input.readAllBytes());
+        }
+        if (!outputHash.equals(entry.outputHash)) {
+            return false;
+        }
+        manifest.put(id, new SyncManifest.Entry(updatedAt, stillPath, posterPath, renderingFingerprint,
+                targetFile.getName(), targetLastModified, outputHash));
+        return true;
     }
 
-    private static void writeImage(final BufferedImage image, final String format, final float quality,
-            final File targetFile) throws IOException {
-        if (quality < 0f) {
-            ImageIO.write(image, format, targetFile);
-        } else {
-            // TODO-CHECK Wouldn't it be good for performances to instanciate Image writer &
-            // params only once and for all?
-            final ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
-            final ImageWriteParam params = writer.getDefaultWriteParam();
-            params.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-            params.setCompressionQuality(quality);
-            params.setProgressiveMode(ImageWriteParam.MODE_DISABLED);
-            try (final ImageOutputStream stream = ImageIO.createImageOutputStream(targetFile)) {
-                writer.setOutput(stream);
-                try {
-                    writer.write(null, new IIOImage(image, null, null), params);
-                } finally {
-                    writer.dispose();
-                    stream.flush();
+    /**
+     * @return the job to run through the pipeline, or {@code null} if there's nothing to generate (i.e. up to date in
+     *         every output profile or simulated)
+     */
+    private static WallpaperJob prepareMovie(final Target target, final int index, final String id,
+            final String stillPath, final String posterPath, final String targetFileName, final long updatedAt)
+            throws IOException {
+        final List<WallpaperJob.Output> outputs = new ArrayList<>();
+        for (final ProfileDirectory directory : target.directories) {
+            final OutputDirectoryIndex outputIndex = directory.outputIndex;
+            final String targetName = targetFileName + "." + id + "." + directory.profile.format;
+            final File targetFile = new File(directory.location, targetName);
+            final Long targetLastModified = outputIndex.getLastModified(id, targetName);
+            if (targetLastModified != null) {
+                if (PlexWallpaperGenerator.isUpToDate(directory, id, targetFile, targetLastModified, updatedAt,
+                        stillPath, posterPath))
+                    continue;
+                targetFile.delete();
+                outputIndex.removed(id, targetName);
+            }
+            final File[] previousFiles = outputIndex.getGeneratedFileNames(id, directory.manifest).stream()
+                    .map(name -> new File(directory.location, name)).toArray(File[]::new);
+
+            if (SIMULATED) {
+                LOGGER.info(target.logPrefix + "File would be generated (if not in \"simulated\" mode): "
+                        + targetFile.getCanonicalPath());
+                continue;
+            }
+            outputs.add(new WallpaperJob.Output(directory, targetFile, previousFiles));
+        }
+        if (outputs.isEmpty()) {
+            return null;
+        }
+        return new WallpaperJob(target, index, id, targetFileName, stillPath, posterPath, updatedAt, outputs);
+    }
+
+    /**
+     * @return the distinct dimensions to request for the still of the outputs of the job
+     */
+    private static List<Dimension> getStillDimensions(final WallpaperJob job) {
+        return job.outputs.stream().map(output -> output.directory.profile.stillDimension).distinct()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the distinct dimensions to request for the poster of the outputs of the job, empty if none has a poster
+     */
+    private static List<Dimension> getPosterDimensions(final WallpaperJob job) {
+        return job.outputs.stream().map(output -> output.directory.profile.getPosterDimension())
+                .filter(Objects::nonNull).distinct().collect(Collectors.toList());
+    }
+
+    /**
+     * Same as {@link #decodeAndResize(byte[], List)} for a single dimension.
+     */
+    static BufferedImage decodeAndResize(final byte[] data, final int width, final int height) throws IOException {
+        return PlexWallpaperGenerator.decodeAndResize(data, Collections.singletonList(new Dimension(width, height)))
+                .get(0);
+    }
+
+    /**
+     * Same as {@link #resizeImage} applied to the decoded image for each of the given dimensions, but decoding the
+     * image once for all of them: only the part which at least one of them keeps and - unless FULL_RESOLUTION_DECODING
+     * - only one row/column out of N, N being as big as possible while the result remains more than twice as big as
+     * every target (skipped pixels aren't averaged, so the resize filter needs that margin to smooth out the aliasing
+     * of this point sampling).
+     *
+     * @param dimensions width (-1 to follow the height) and height (-1 to follow the width) of each target
+     * @return the resized images, in the order of the dimensions
+     */
+    static List<BufferedImage> decodeAndResize(final byte[] data, final List<Dimension> dimensions)
+            throws IOException {
+        return PlexWallpaperGenerator.resize(PlexWallpaperGenerator.decode(data, dimensions), dimensions);
+    }
+
+    /**
+     * First half of {@link #decodeAndResize(byte[], List)}: decodes what the given dimensions need.
+     */
+    private static DecodedImage decode(final byte[] data, final List<Dimension> dimensions) throws IOException {
+        // Read from memory rather than through the cache file ImageIO.createImageInputStream may create
+        try (ImageInputStream stream = new MemoryCacheImageInputStream(new ByteArrayInputStream(data))) {
+            final ImageReader reader = PlexWallpaperGenerator.getReader(stream);
+            try {
+                final Dimension imageDimension = new Dimension(reader.getWidth(0), reader.getHeight(0));
+                final Rectangle region = PlexWallpaperGenerator.getDecodedRegion(imageDimension, dimensions);
+                final int subsampling = PlexWallpaperGenerator.getSubsampling(imageDimension, dimensions);
+                final ImageReadParam params = reader.getDefaultReadParam();
+                params.setSourceRegion(region);
+                params.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                final BufferedImage image = reader.read(0, params);
+                if (image.getWidth() == (region.width + subsampling - 1) / subsampling
+                        && image.getHeight() == (region.height + subsampling - 1) / subsampling) {
+                    return new DecodedImage(image, imageDimension, region, subsampling);
                 }
+                // The reader ignored the parameters, i.e. decoded every pixel of the whole image
+                return new DecodedImage(image, imageDimension, new Rectangle(imageDimension), 1);
+            } finally {
+                reader.dispose();
             }
         }
     }
 
-    private static void handleMovie(final String id, final String stillUrl, final String posterUrl,
-            final String targetFileName, final long lastUpdated) throws IOException {
-        File targetFile = new File(TARGET_DIRECTORY_PATH, targetFileName + "." + id + "." + IMAGE_FORMAT);
-        if (targetFile.exists()) {
-            if (targetFile.lastModified() > lastUpdated)
-                return;
-            targetFile.delete();
-            targetFile = new File(TARGET_DIRECTORY_PATH, targetFileName + "." + id + "." + IMAGE_FORMAT);
+    /**
+     * Second half of {@link #decodeAndResize(byte[], List)}: resamples each crop from the decoded image.
+     */
+    private static List<BufferedImage> resize(final DecodedImage decodedImage, final List<Dimension> dimensions) {
+        final BufferedImage image = decodedImage.image;
+        final Dimension imageDimension = decodedImage.sourceDimension;
+        final Rectangle region = decodedImage.region;
+        final int subsampling = decodedImage.subsampling;
+        final List<BufferedImage> images = new ArrayList<>(dimensions.size());
+        for (final Dimension dimension : dimensions) {
+            final Rectangle crop = PlexWallpaperGenerator.getCrop(imageDimension.width, imageDimension.height,
+                    dimension.width, dimension.height);
+            final Dimension targetDimension = PlexWallpaperGenerator.getTargetDimension(crop, dimension.width,
+                    dimension.height);
+            // Same area in the decoded image
+            final int x = (crop.x - region.x) / subsampling;
+            final int y = (crop.y - region.y) / subsampling;
+            final int width = (crop.x + crop.width - region.x + subsampling - 1) / subsampling - x;
+            final int height = (crop.y + crop.height - region.y + subsampling - 1) / subsampling - y;
+            if (x == 0 && y == 0 && width == image.getWidth() && height == image.getHeight()
+                    && image.getWidth() == targetDimension.width && image.getHeight() == targetDimension.height) {
+                images.add(image);
+            } else {
+                images.add(RESAMPLER.resample(image, x, y, width, height, targetDimension.width,
+                        targetDimension.height));
+            }
         }
-        final File[] previousFiles = new File(TARGET_DIRECTORY_PATH).listFiles(new FilenameFilter() {
-            @Override
-            public boolean accept(final File directory, final String name) {
-                return name.endsWith("." + id + "." + IMAGE_FORMAT);
+        return images;
+    }
+
+    /**
+     * @return a reader whose input is the given stream
+     */
+    private static ImageReader getReader(final ImageInputStream stream) throws IOException {
+        final Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported image format.");
+        }
+        final ImageReader reader = readers.next();
+        reader.setInput(stream, true, true);
+        return reader;
+    }
+
+    /**
+     * @return the dimension of the image, as read from its header only
+     */
+    private static Dimension readDimension(final byte[] data) throws IOException {
+        try (ImageInputStream stream = new MemoryCacheImageInputStream(new ByteArrayInputStream(data))) {
+            final ImageReader reader = PlexWallpaperGenerator.getReader(stream);
+            try {
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
             }
-        });
+        }
+    }
 
-        if (SIMULATED) {
-            System.out.println(
-                    "File would be generated (if not in \"simulated\" mode): " + targetFile.getCanonicalPath());
-        } else {
-            final Image resizedStillImage = PlexWallpaperGenerator.resizeImage(ImageIO.read(new URL(stillUrl)),
-                    STILL_DIMENSION.width, STILL_DIMENSION.height);
-            final Image resizedPosterImage = RIGHT_POSTER_POSITION == Position.NONE
-                    && LEFT_POSTER_POSITION == Position.NONE ? null
-                            : PlexWallpaperGenerator.resizeImage(ImageIO.read(new URL(posterUrl)), -1, POSTER_HEIGHT);
+    /**
+     * @return the smallest area of the image containing what each of the given dimensions keeps
+     */
+    private static Rectangle getDecodedRegion(final Dimension imageDimension, final List<Dimension> dimensions) {
+        Rectangle region = null;
+        for (final Dimension dimension : dimensions) {
+            final Rectangle crop = PlexWallpaperGenerator.getCrop(imageDimension.width, imageDimension.height,
+                    dimension.width, dimension.height);
+            region = region == null ? crop : region.union(crop);
+        }
+        return region;
+    }
 
-            // Combining
-            // TODO Make the layout of the combined image configurable #ConfigurableLayout
-            final int posterWidth = resizedPosterImage == null ? 0
-                    : 2 * POSTER_MARGIN + resizedPosterImage.getWidth(null);
-            final int posterHeight = resizedPosterImage == null ? 0
-                    : 2 * POSTER_MARGIN + resizedPosterImage.getHeight(null);
-            BufferedImage combinedImage = new BufferedImage(
-                    resizedStillImage.getWidth(null) + (RIGHT_POSTER_POSITION == Position.EXTERNAL ? posterWidth : 0)
-                            + (LEFT_POSTER_POSITION == Position.EXTERNAL ? posterWidth : 0),
-                    Math.max(posterHeight, resizedStillImage.getHeight(null)), BufferedImage.TYPE_INT_RGB);
-            final Graphics graphics = combinedImage.getGraphics();
-            graphics.drawImage(resizedStillImage, RIGHT_POSTER_POSITION == Position.EXTERNAL ? posterWidth : 0, 0,
-                    null);
-            if (RIGHT_POSTER_POSITION != Position.NONE) {
-                graphics.drawImage(resizedPosterImage, POSTER_MARGIN, POSTER_MARGIN, null);
-            }
-            if (LEFT_POSTER_POSITION != Position.NONE) {
-                graphics.drawImage(resizedPosterImage, combinedImage.getWidth() - posterWidth + POSTER_MARGIN,
-                        POSTER_MARGIN, null);
-            }
-
-            if (IMAGE_BRIGHTNESS < 1f) {
-                combinedImage = new RescaleOp(IMAGE_BRIGHTNESS, 0, null).filter(combinedImage, null);
-            }
-
-            PlexWallpaperGenerator.writeImage(combinedImage, IMAGE_FORMAT, IMAGE_QUALITY, targetFile);
-            System.out.println("File generated: " + targetFile.getCanonicalPath());
-
-            if (previousFiles.length > 0) {
-                for (final File previousFile : previousFiles) {
-                    previousFile.delete();
+    /**
+     * @return the subsampling with which the image can be decoded while remaining more than twice as big as each of
+     *         the given dimensions
+     */
+    private static int getSubsampling(final Dimension imageDimension, final List<Dimension> dimensions) {
+        if (FULL_RESOLUTION_DECODING) {
+            return 1;
+        }
+        int subsampling = Integer.MAX_VALUE;
+        for (final Dimension dimension : dimensions) {
+            final Rectangle crop = PlexWallpaperGenerator.getCrop(imageDimension.width, imageDimension.height,
+                    dimension.width, dimension.height);
+            final Dimension targetDimension = PlexWallpaperGenerator.getTargetDimension(crop, dimension.width,
+                    dimension.height);
+            subsampling = Math.min(subsampling,
+                    Math.max(1, Math.min((crop.width - 1) / Math.max(1, 2 * targetDimension.width),
+                            (crop.height - 1) / Math.max(1, 2 * targetDimension.height))));
+        }
+        return subsampling;
+    }
+
+    /**
+     * @return the number of pixels {@link #decodeAndResize} decodes for an image of the given dimension
+     */
+    private static long getDecodedPixels(final Dimension imageDimension, final List<Dimension> dimensions) {
+        final Rectangle region = PlexWallpaperGenerator.getDecodedRegion(imageDimension, dimensions);
+        final int subsampling = PlexWallpaperGenerator.getSubsampling(imageDimension, dimensions);
+        return (long) ((region.width + subsampling - 1) / subsampling)
+                * ((region.height + subsampling - 1) / subsampling);
+    }
+
+    /**
+     * @return in bytes, the most that {@link #decodeAndResize} allocates to resample an image of the given dimension,
+     *         besides the decoded and resized images
+     */
+    private static long getResamplingBytes(final Dimension imageDimension, final List<Dimension> dimensions) {
+        final int subsampling = PlexWallpaperGenerator.getSubsampling(imageDimension, dimensions);
+        long bytes = 0L;
+        for (final Dimension dimension : dimensions) {
+            final Rectangle crop = PlexWallpaperGenerator.getCrop(imageDimension.width, imageDimension.height,
+                    dimension.width, dimension.height);
+            final Dimension targetDimension = PlexWallpaperGenerator.getTargetDimension(crop, dimension.width,
+                    dimension.height);
+            // Scratch buffers growing from one dimension to the next, the previous ones may not be garbage yet
+            bytes += RESAMPLER.getWorkingBytes(crop.width / subsampling + 2, crop.height / subsampling + 2,
+                    targetDimension.width, targetDimension.height);
+        }
+        return bytes;
+    }
+
+    private static OkHttpClient createHttpClient() {
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(HTTP_MAX_IDLE_CONNECTIONS, 5, TimeUnit.MINUTES))
+                .connectTimeout(HTTP_CONNECT_TIMEOUT, TimeUnit.SECONDS)
+                .readTimeout(HTTP_READ_TIMEOUT, TimeUnit.SECONDS).build();
+    }
+
+    private static void fetchImages(final Engine engine, final WallpaperJob job) throws IOException {
+        final long fetchStart = System.nanoTime();
+        // Big enough for every output: covering the biggest width and height covers each of them
+        final List<Dimension> stillDimensions = PlexWallpaperGenerator.getStillDimensions(job);
+        job.stillData = PlexWallpaperGenerator.fetchImage(engine, job.target, job.stillPath,
+                stillDimensions.stream().mapToInt(dimension -> dimension.width).max().getAsInt(),
+                stillDimensions.stream().mapToInt(dimension -> dimension.height).max().getAsInt());
+        final List<Dimension> posterDimensions = PlexWallpaperGenerator.getPosterDimensions(job);
+        if (!posterDimensions.isEmpty()) {
+            job.posterData = PlexWallpaperGenerator.fetchImage(engine, job.target, job.posterPath, -1,
+                    posterDimensions.stream().mapToInt(dimension -> dimension.height).max().getAsInt());
+        }
+        job.record(RunMetrics.Stage.DOWNLOAD, System.nanoTime() - fetchStart);
+        // Including images revalidated against (or served from) the cache
+        job.target.metrics.downloaded(job.stillData.length + (job.posterData == null ? 0 : job.posterData.length));
+    }
+
+    /**
+     * @param width -1 to follow the height
+     * @param height -1 to follow the width
+     * @return the original image or - if SERVER_TRANSCODING - the image resized by the server so that it covers the
+     *         given dimension, leaving only the crop (if any) to do
+     */
+    private static byte[] fetchImage(final Engine engine, final Target target, final String path, final int width,
+            final int height) throws IOException {
+        if (SERVER_TRANSCODING) {
+            // "minSize=1" scales the image to cover width x height (hence 1 for the dimension which must follow)
+            final String transcodePath = "/photo/:/transcode?width=" + Math.max(1, width) + "&height="
+                    + Math.max(1, height) + "&minSize=1&url=" + URLEncoder.encode(path, StandardCharsets.UTF_8);
+            try {
+                return engine.fetcher.fetch(PlexWallpaperGenerator.getFullUrl(target, transcodePath),
+                        target.serverUrl + transcodePath);
+            } catch (final IOException exception) {
+                LOGGER.warning(target.logPrefix + "Transcoding failed, downloading original image instead: " + path
+                        + " (" + exception.getMessage() + ")");
+            }
+        }
+        // Paths are only unique within a server
+        return engine.fetcher.fetch(PlexWallpaperGenerator.getFullUrl(target, path), target.serverUrl + path);
+    }
+
+    private static void resizeImages(final Engine engine, final WallpaperJob job)
+            throws IOException, InterruptedException {
+        final List<Dimension> stillDimensions = PlexWallpaperGenerator.getStillDimensions(job);
+        final List<Dimension> posterDimensions = PlexWallpaperGenerator.getPosterDimensions(job);
+        // Decoded sources (along with the buffers to resample them) may take up to 4 bytes per pixel, resized and
+        // combined images take 4
+        final Dimension stillSourceDimension = PlexWallpaperGenerator.readDimension(job.stillData);
+        long decodedBytes = 4L * PlexWallpaperGenerator.getDecodedPixels(stillSourceDimension, stillDimensions)
+                + PlexWallpaperGenerator.getResamplingBytes(stillSourceDimension, stillDimensions);
+        long resizedBytes = 0L;
+        for (final Dimension stillDimension : stillDimensions) {
+            resizedBytes += 4L * stillDimension.width * stillDimension.height;
+        }
+        final Map<Dimension, Dimension> resizedPosterDimensions = new HashMap<>();
+        if (job.posterData != null) {
+            final Dimension posterSourceDimension = PlexWallpaperGenerator.readDimension(job.posterData);
+            decodedBytes += 4L * PlexWallpaperGenerator.getDecodedPixels(posterSourceDimension, posterDimensions)
+                    + PlexWallpaperGenerator.getResamplingBytes(posterSourceDimension, posterDimensions);
+            for (final Dimension posterDimension : posterDimensions) {
+                final Dimension resizedPosterDimension = PlexWallpaperGenerator.getTargetDimension(
+                        new Rectangle(posterSourceDimension), posterDimension.width, posterDimension.height);
+                resizedPosterDimensions.put(posterDimension, resizedPosterDimension);
+                resizedBytes += 4L * resizedPosterDimension.width * resizedPosterDimension.height;
+            }
+        }
+        long combinedBytes = 0L;
+        for (final WallpaperJob.Output output : job.outputs) {
+            final OutputProfile profile = output.directory.profile;
+            final Dimension combinedDimension = profile.getCombinedDimension(profile.stillDimension,
+                    resizedPosterDimensions.get(profile.getPosterDimension()));
+            combinedBytes += 4L * combinedDimension.width * combinedDimension.height;
+        }
+
+        engine.memoryBudget.reserve(decodedBytes + resizedBytes + combinedBytes);
+        job.resizedImagesBytes = resizedBytes;
+        job.combinedImagesBytes = combinedBytes;
+        try {
+            PlexWallpaperGenerator.decodeAndResize(job, job.stillData, stillDimensions, job.stillImages);
+            job.stillData = null;
+            if (job.posterData != null) {
+                PlexWallpaperGenerator.decodeAndResize(job, job.posterData, posterDimensions, job.posterImages);
+                job.posterData = null;
+            }
+            job.target.metrics.record(RunMetrics.Stage.DECODE, job.stageTimes[RunMetrics.Stage.DECODE.ordinal()]);
+            job.target.metrics.record(RunMetrics.Stage.RESIZE, job.stageTimes[RunMetrics.Stage.RESIZE.ordinal()]);
+        } finally {
+            // Decoded sources are garbage once resized
+            engine.memoryBudget.release(decodedBytes);
+        }
+    }
+
+    /**
+     * Same as {@link #decodeAndResize(byte[], List)}, putting the images by dimension and adding the time spent to the
+     * job.
+     */
+    private static void decodeAndResize(final WallpaperJob job, final byte[] data, final List<Dimension> dimensions,
+            final Map<Dimension, BufferedImage> images) throws IOException {
+        final long decodeStart = System.nanoTime();
+        final DecodedImage decodedImage = PlexWallpaperGenerator.decode(data, dimensions);
+        final long resizeStart = System.nanoTime();
+        final List<BufferedImage> resizedImages = PlexWallpaperGenerator.resize(decodedImage, dimensions);
+        job.stageTimes[RunMetrics.Stage.DECODE.ordinal()] += resizeStart - decodeStart;
+        job.stageTimes[RunMetrics.Stage.RESIZE.ordinal()] += System.nanoTime() - resizeStart;
+        for (int dimensionIndex = 0; dimensionIndex < dimensions.size(); dimensionIndex++) {
+            images.put(dimensions.get(dimensionIndex), resizedImages.get(dimensionIndex));
+        }
+    }
+
+    private static void combineImages(final Engine engine, final WallpaperJob job) {
+        final long compositeStart = System.nanoTime();
+        for (final WallpaperJob.Output output : job.outputs) {
+            final OutputProfile profile = output.directory.profile;
+            output.combinedImage = PlexWallpaperGenerator.combineImages(profile.compositor, profile,
+                    job.stillImages.get(profile.stillDimension), job.posterImages.get(profile.getPosterDimension()));
+        }
+        job.stillImages.clear();
+        job.posterImages.clear();
+        job.record(RunMetrics.Stage.COMPOSITE, System.nanoTime() - compositeStart);
+    }
+
+    /**
+     * @param resizedPosterImage {@code null} if the profile has no poster
+     * @return a destination acquired from the compositor, to release once encoded
+     */
+    static BufferedImage combineImages(final ImageCompositor compositor, final OutputProfile profile,
+            final BufferedImage resizedStillImage, final BufferedImage resizedPosterImage) {
+        final int posterMargin = profile.posterMargin;
+        final int posterWidth = resizedPosterImage == null ? 0 : 2 * posterMargin + resizedPosterImage.getWidth();
+        final int stillX = profile.rightPosterPosition == Position.EXTERNAL ? posterWidth : 0;
+        final int stillWidth = resizedStillImage.getWidth();
+        final int stillHeight = resizedStillImage.getHeight();
+        final Dimension combinedDimension = profile.getCombinedDimension(new Dimension(stillWidth, stillHeight),
+                resizedPosterImage == null ? null
+                        : new Dimension(resizedPosterImage.getWidth(), resizedPosterImage.getHeight()));
+        final BufferedImage combinedImage = compositor.acquire(combinedDimension.width, combinedDimension.height);
+        // A pooled destination still holds the previous wallpaper, so whatever the still doesn't cover is cleared
+        compositor.clear(combinedImage, 0, 0, stillX, combinedImage.getHeight());
+        compositor.clear(combinedImage, stillX + stillWidth, 0, combinedImage.getWidth() - stillX - stillWidth,
+                combinedImage.getHeight());
+        compositor.clear(combinedImage, stillX, stillHeight, stillWidth, combinedImage.getHeight() - stillHeight);
+        compositor.copy(resizedStillImage, combinedImage, stillX, 0);
+        if (profile.rightPosterPosition != Position.NONE) {
+            compositor.copy(resizedPosterImage, combinedImage, posterMargin, posterMargin);
+        }
+        if (profile.leftPosterPosition != Position.NONE) {
+            compositor.copy(resizedPosterImage, combinedImage, combinedImage.getWidth() - posterWidth + posterMargin,
+                    posterMargin);
+        }
+        return combinedImage;
+    }
+
+    private static void writeCombinedImages(final Engine engine, final WallpaperJob job) throws IOException {
+        for (final WallpaperJob.Output output : job.outputs) {
+            final long writeStart = System.nanoTime();
+            final ProfileDirectory directory = output.directory;
+            final OutputProfile profile = directory.profile;
+            final ImageEncoder.Result result = profile.encoder.write(output.combinedImage, output.targetFile);
+            profile.compositor.release(output.combinedImage);
+            output.combinedImage = null;
+            final long lastModified = output.targetFile.lastModified();
+            directory.outputIndex.added(job.id, output.targetFile.getName(), lastModified);
+            directory.manifest.put(job.id, new SyncManifest.Entry(job.updatedAt, job.stillPath, job.posterPath,
+                    profile.renderingFingerprint, output.targetFile.getName(), lastModified, result.hash));
+            for (final File previousFile : output.previousFiles) {
+                previousFile.delete();
+                directory.outputIndex.removed(job.id, previousFile.getName());
+            }
+            // Writing being everything but the encoding: opening, flushing, renaming and replacing files
+            job.record(RunMetrics.Stage.ENCODE, result.encodeTime);
+            job.record(RunMetrics.Stage.WRITE, System.nanoTime() - writeStart - result.encodeTime);
+            job.target.metrics.written(result.size);
+            LOGGER.info(job.target.logPrefix + "File generated: " + output.targetFile.getCanonicalPath() + " ("
+                    + result.size / 1024 + " KB encoded in " + TimeUnit.NANOSECONDS.toMillis(result.encodeTime)
+                    + " ms)");
+        }
+    }
+
+    /**
+     * Deletes the wallpapers of a movie which isn't in the library anymore.
+     */
+    private static void deleteWallpapers(final Target target, final String id) throws IOException {
+        boolean deleted = false;
+        for (final ProfileDirectory directory : target.directories) {
+            final List<String> fileNames = directory.outputIndex.getGeneratedFileNames(id, directory.manifest);
+            if (!SIMULATED) {
+                directory.manifest.remove(id);
+            }
+            for (final String fileName : fileNames) {
+                deleted = true;
+                final File orphanFile = new File(directory.location, fileName);
+                if (SIMULATED) {
+                    LOGGER.info(target.logPrefix + "File would be deleted (if not in \"simulated\" mode): "
+                            + orphanFile.getCanonicalPath());
+                } else {
+                    orphanFile.delete();
+                    directory.outputIndex.removed(id, fileName);
+                    LOGGER.info(target.logPrefix + "File deleted (movie not in library anymore): "
+                            + orphanFile.getCanonicalPath());
                 }
             }
         }
+        if (deleted) {
+            target.metrics.deleted();
+        }
     }
 
-    private static String sanitizeTitle(final String title) {
+    static String sanitizeTitle(final String title) {
         String sanitized = title.toLowerCase().replaceAll("[^\\p{javaLowerCase}\\d]", "_");
         while (sanitized.indexOf("__") != -1) {
             sanitized = sanitized.replace("__", "_");
@@ -301,117 +1242,467 @@ public class PlexWallpaperGenerator {
         return sanitized;
     }
 
-    private static Stream<Node> getNodeListAsStream(final NodeList nodeList) {
-        return nodeList.getLength() == 0 ? Stream.empty()
-                : Stream.iterate(nodeList.item(0), node -> node.getNextSibling()).limit(nodeList.getLength());
+    private static void handleMovie(final Engine engine, final Target target, final int videoIndex,
+            final Movie movie) throws IOException, XMLStreamException {
+        target.metrics.listed();
+        final long filterStart = System.nanoTime();
+        if (MANDATORY_FILE_PATH_PATTERN != null && movie.show && movie.filePaths.isEmpty()) {
+            // Sections list shows without their folders, only the show itself provides them
+            final Movie show = LibrarySectionReader.readMovie(engine.client,
+                    PlexWallpaperGenerator.getFullUrl(target, "/library/metadata/" + movie.ratingKey), target.metrics);
+            if (show != null) {
+                movie.filePaths.addAll(show.filePaths);
+            }
+        }
+        final WallpaperJob job = PlexWallpaperGenerator.filterMovie(target, videoIndex, movie);
+        final long filterTime = System.nanoTime() - filterStart;
+        target.metrics.record(RunMetrics.Stage.FILTER, filterTime);
+        if (job != null) {
+            job.stageTimes[RunMetrics.Stage.FILTER.ordinal()] = filterTime;
+            target.submitted();
+            engine.pipeline.submit(job);
+        }
+    }
+
+    /**
+     * @return the job generating the wallpapers of the movie, or {@code null} if it is skipped or up to date
+     */
+    private static WallpaperJob filterMovie(final Target target, final int videoIndex, final Movie movie) {
+        final String id = movie.ratingKey;
+        String title = "";
+        if (movie.originalTitle != null) {
+            title = PlexWallpaperGenerator.sanitizeTitle(movie.originalTitle);
+        }
+        if (title.length() == 0) {
+            title = PlexWallpaperGenerator.sanitizeTitle(movie.title);
+        }
+        if (movie.year != null) {
+            title += " (" + movie.year + ")";
+        }
+        final String lowerCaseTitle = title.toLowerCase();
+        for (final String forbiddenKeyword : FORBIDDEN_KEYWORDS) {
+            if (lowerCaseTitle.contains(forbiddenKeyword)) {
+                LOGGER.info(target.logPrefix + "Skipped because contains forbidden keyword ["
+                        + forbiddenKeyword.toUpperCase() + "]: " + title);
+                target.metrics.skipped(RunMetrics.SkipReason.FORBIDDEN_KEYWORD);
+                return null;
+            }
+        }
+        if (MANDATORY_FILE_PATH_PATTERN != null && movie.show && movie.filePaths.isEmpty()) {
+            LOGGER.info(target.logPrefix + "Not checked against the mandatory pattern since its folder is unknown: "
+                    + title);
+        } else if (MANDATORY_FILE_PATH_PATTERN != null) {
+            final Set<String> mediaPartFilePathes = new LinkedHashSet<>(movie.filePaths);
+            if (mediaPartFilePathes.stream()
+                    .filter(filePath -> FilenameUtils.wildcardMatchOnSystem(filePath, MANDATORY_FILE_PATH_PATTERN))
+                    .count() == 0) {
+                LOGGER.info(target.logPrefix
+                        + "Skipped because corresponding files don't respect the mandatory pattern: " + title + " ["
+                        + String.join(", ", mediaPartFilePathes) + "]");
+                target.metrics.skipped(RunMetrics.SkipReason.FILE_PATH_PATTERN);
+                return null;
+            }
+        }
+        if (!MANDATORY_GENRES.isEmpty()) {
+            final Set<String> genreNames = movie.genres.stream().map(genre -> genre.toLowerCase())
+                    .collect(Collectors.toSet());
+            if (Collections.disjoint(genreNames, MANDATORY_GENRES)) {
+                LOGGER.info(target.logPrefix + "Skipped because isn't tagged with any of the mandatory genres: " + title
+                        + " [" + String.join(", ", genreNames) + "]");
+                target.metrics.skipped(RunMetrics.SkipReason.GENRE);
+                return null;
+            }
+        }
+        if (movie.art == null || movie.thumb == null) {
+            LOGGER.warning(target.logPrefix + "Image missing for: " + title);
+            target.metrics.skipped(RunMetrics.SkipReason.MISSING_IMAGE);
+            target.warnings.set(true);
+            return null;
+        }
+        final WallpaperJob job;
+        try {
+            job = PlexWallpaperGenerator.prepareMovie(target, videoIndex, id, movie.art, movie.thumb, title,
+                    movie.updatedAt);
+        } catch (final IOException | NullPointerException exception) {
+            LOGGER.log(Level.WARNING, target.logPrefix + "Error while trying to handle: " + title, exception);
+            target.metrics.failed();
+            target.warnings.set(true);
+            return null;
+        }
+        if (job == null) {
+            LOGGER.info(target.logPrefix + (videoIndex + 1) + ". " + title);
+            target.metrics.upToDate();
+        }
+        return job;
+    }
+
+    static Engine createEngine() throws IOException {
+        final OkHttpClient client = PlexWallpaperGenerator.createHttpClient();
+        final List<Target> targets = new ArrayList<>();
+        // What is written where (output directories and reports), to make sure that nothing is shared
+        final Map<Path, String> locations = new HashMap<>();
+        final Set<String> targetNames = TARGET_NAMES.length == 0 ? Collections.singleton(DEFAULT_TARGET_NAME)
+                : new LinkedHashSet<>(Arrays.asList(TARGET_NAMES));
+        for (final String name : targetNames) {
+            final boolean named = TARGET_NAMES.length > 0;
+            if (named && Arrays.asList(OUTPUT_PROFILE_NAMES).contains(name)) {
+                // Their system properties would be mixed up
+                throw new IllegalArgumentException("Target " + name + " can't be named like an output profile");
+            }
+            final Function<String, Optional<String>> property = shortName -> Optional
+                    .ofNullable(named ? PlexWallpaperGenerator.getNamedSystemProperty(name, shortName) : null);
+            final Function<String, Function<String, String>> mandatoryProperty = shortName -> defaultValue -> property
+                    .apply(shortName).or(() -> Optional.ofNullable(defaultValue))
+                    .orElseThrow(() -> new IllegalArgumentException("No " + shortName + " for target " + name));
+            final Path targetDirectory = (named
+                    ? Paths.get(TARGET_DIRECTORY_PATH, property.apply("SUBDIRECTORY").orElse(name))
+                    : Paths.get(TARGET_DIRECTORY_PATH)).toAbsolutePath().normalize();
+            if (named) {
+                Files.createDirectories(targetDirectory);
+            }
+            final String description = named ? " of target " + name : "";
+            final List<ProfileDirectory> directories = new ArrayList<>();
+            for (final OutputProfile profile : OUTPUT_PROFILES) {
+                final Path directory = profile.subdirectory == null ? targetDirectory
+                        : targetDirectory.resolve(profile.subdirectory).normalize();
+                // Wallpapers sharing a directory would also share (and corrupt) their manifest
+                PlexWallpaperGenerator.checkLocation(locations, directory,
+                        "output profile " + profile.name + description);
+                if (profile.subdirectory != null) {
+                    Files.createDirectories(directory);
+                }
+                directories.add(new ProfileDirectory(profile, directory.toFile(),
+                        new OutputDirectoryIndex(directory, profile.format),
+                        SyncManifest.load(directory.resolve(MANIFEST_FILE_NAME))));
+            }
+            final Path reportPath = Paths.get(property.apply("RUN_REPORT_PATH").or(() -> Optional
+                    .ofNullable(RUN_REPORT_PATH)).orElse(targetDirectory.resolve(RUN_REPORT_FILE_NAME).toString()))
+                    .toAbsolutePath().normalize();
+            PlexWallpaperGenerator.checkLocation(locations, reportPath, "report" + description);
+            targets.add(new Target(name, mandatoryProperty.apply("SERVER_URL").apply(SERVER_URL),
+                    mandatoryProperty.apply("AUTHENTICATION_TOKEN").apply(AUTHENTICATION_TOKEN),
+                    mandatoryProperty.apply("LIBRARY_ID").apply(LIBRARY_ID), directories, reportPath,
+                    named ? "[" + name + "] " : ""));
+        }
+        return new Engine(client,
+                new ImageFetcher(client,
+                        IMAGE_CACHE_DIRECTORY_PATH == null ? null
+                                : new SourceImageCache(Paths.get(IMAGE_CACHE_DIRECTORY_PATH), IMAGE_CACHE_MAX_SIZE),
+                        HTTP_MAX_REQUESTS_PER_HOST),
+                targets);
+    }
+
+    private static void checkLocation(final Map<Path, String> locations, final Path location,
+            final String description) {
+        final String otherDescription = locations.put(location, description);
+        if (otherDescription != null) {
+            throw new IllegalArgumentException("The " + otherDescription + " and the " + description
+                    + " can't be at the same location: " + location);
+        }
+    }
+
+    /**
+     * Runs the task for each target - in parallel if there are several ones, their movies then taking turns in the
+     * queues of the shared pipeline - and rethrows the first exception once all of them are over.
+     */
+    private static void forEachTarget(final List<Target> targets, final TargetTask task) throws Exception {
+        if (targets.size() == 1) {
+            task.run(targets.get(0));
+            return;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, targets.size()));
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (final Target target : targets) {
+                futures.add(executor.submit(() -> {
+                    Thread.currentThread().setName("target-" + target.name);
+                    task.run(target);
+                    return null;
+                }));
+            }
+            Exception firstException = null;
+            for (final Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (final ExecutionException exception) {
+                    if (exception.getCause() instanceof Error) {
+                        throw (Error) exception.getCause();
+                    }
+                    if (firstException == null) {
+                        firstException = (Exception) exception.getCause();
+                    } else {
+                        firstException.addSuppressed(exception.getCause());
+                    }
+                }
+            }
+            if (firstException != null) {
+                throw firstException;
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Rethrows the first unexpected failure of the pipeline for the target, if any.
+     */
+    private static void checkFailure(final Target target) throws Exception {
+        if (target.failure.get() instanceof Error) {
+            throw (Error) target.failure.get();
+        }
+        if (target.failure.get() != null) {
+            throw (Exception) target.failure.get();
+        }
+    }
+
+    static void synchronize(final Engine engine) throws Exception {
+        engine.memoryBudget.resetStatistics();
+        try {
+            PlexWallpaperGenerator.forEachTarget(engine.targets,
+                    target -> PlexWallpaperGenerator.synchronize(engine, target));
+        } finally {
+            PlexWallpaperGenerator.logMemoryBudgetStatistics(engine);
+            PlexWallpaperGenerator.writePrometheusTextfile(engine);
+        }
+    }
+
+    private static void synchronize(final Engine engine, final Target target) throws Exception {
+        final long syncStart = System.currentTimeMillis() / 1000L;
+        // Listing only updated movies can't tell which ones were removed, nor which ones now (dis)respect the filters
+        // or need to be generated with other settings (in any of the profiles)
+        final boolean incremental = !FULL_SYNC && !DELETE_ORPHANS && target.directories.stream()
+                .allMatch(directory -> directory.manifest.getSyncedAt() != null
+                        && target.selectionFingerprint.equals(directory.manifest.getSelectionFingerprint())
+                        && directory.profile.renderingFingerprint.equals(directory.manifest.getRenderingFingerprint()));
+        target.reset(new RunMetrics(target.name, incremental ? "incremental sync" : "sync"));
+        final Set<String> libraryIds = ConcurrentHashMap.newKeySet();
+        String url = PlexWallpaperGenerator.getFullUrl(target, "/library/sections/" + target.libraryId + "/all");
+        if (incremental) {
+            final long syncedAt = target.directories.stream()
+                    .mapToLong(directory -> directory.manifest.getSyncedAt()).min().getAsLong();
+            url += "&updatedAt>=" + (syncedAt - INCREMENTAL_SYNC_MARGIN);
+            LOGGER.info(target.logPrefix + "Will only process movies updated since the last sync");
+        }
+        LOGGER.info(target.logPrefix + "Querying URL: " + url);
+        Exception listingException = null;
+        try {
+            new LibrarySectionReader(engine.client, url, PAGE_SIZE, target.metrics).forEach((videoIndex, movie) -> {
+                libraryIds.add(movie.ratingKey);
+                PlexWallpaperGenerator.handleMovie(engine, target, videoIndex, movie);
+            });
+        } catch (final Exception exception) {
+            listingException = exception;
+        }
+        target.awaitIdle();
+        final boolean complete = listingException == null && target.failure.get() == null;
+        if (complete && DELETE_ORPHANS) {
+            final Set<String> orphanIds = new LinkedHashSet<>();
+            for (final ProfileDirectory directory : target.directories) {
+                orphanIds.addAll(directory.outputIndex.getOrphanIds(libraryIds, directory.manifest));
+            }
+            for (final String orphanId : orphanIds) {
+                PlexWallpaperGenerator.deleteWallpapers(target, orphanId);
+            }
+        }
+        if (!SIMULATED) {
+            // Whatever was generated is recorded, but the next sync can only be incremental if this one was complete
+            // and flawless (otherwise movies which failed wouldn't be listed again)
+            for (final ProfileDirectory directory : target.directories) {
+                final SyncManifest manifest = directory.manifest;
+                manifest.save(complete && !target.warnings.get() ? Long.valueOf(syncStart)
+                        : incremental ? manifest.getSyncedAt() : null, target.selectionFingerprint,
+                        directory.profile.renderingFingerprint);
+            }
+        }
+        PlexWallpaperGenerator.writeRunReport(engine, target, complete);
+        if (listingException != null) {
+            throw listingException;
+        }
+        PlexWallpaperGenerator.checkFailure(target);
+    }
+
+    private static void logMemoryBudgetStatistics(final Engine engine) {
+        final MemoryBudget budget = engine.memoryBudget;
+        LOGGER.info("Memory budget: peak usage of " + budget.getPeakUsed() / (1024 * 1024) + " MB out of "
+                + budget.getCapacity() / (1024 * 1024) + " MB (besides "
+                + (MEMORY_BUDGET - budget.getCapacity()) / (1024 * 1024) + " MB set aside for buffers kept for reuse), "
+                + budget.getWaitCount() + " waits for a total of "
+                + TimeUnit.NANOSECONDS.toMillis(budget.getWaitTime()) + " ms");
+    }
+
+    /**
+     * @return in bytes, the most that buffers kept for reuse (idle destinations of the compositors and scratch buffers
+     *         of the decoding threads) can retain; the few per-thread rows of the compositors are negligible
+     */
+    private static long getRetainedBufferBytes() {
+        long bytes = DECODE_THREADS * RESAMPLER.getMaximumRetainedScratchBytes();
+        for (final OutputProfile profile : OUTPUT_PROFILES) {
+            bytes += profile.compositor.getMaximumPooledBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Ends the measures of the synchronization/refresh of the target and writes its report, failing to do so being
+     * only logged.
+     *
+     * @param complete whether every movie could be listed and handled without unexpected failure
+     */
+    private static void writeRunReport(final Engine engine, final Target target, final boolean complete) {
+        final RunMetrics metrics = target.metrics;
+        metrics.finish(complete && !target.warnings.get() ? "success" : complete ? "warnings" : "failure");
+        try {
+            RunMetrics.write(target.reportPath, metrics.toJson(engine.memoryBudget));
+        } catch (final IOException exception) {
+            LOGGER.log(Level.WARNING, target.logPrefix + "Error while writing the run report", exception);
+        }
+    }
+
+    /**
+     * Writes - if PROMETHEUS_TEXTFILE_PATH - the metrics of the last synchronization/refresh of every target, failing
+     * to do so being only logged.
+     */
+    private static void writePrometheusTextfile(final Engine engine) {
+        if (PROMETHEUS_TEXTFILE_PATH == null) {
+            return;
+        }
+        try {
+            RunMetrics.write(Paths.get(PROMETHEUS_TEXTFILE_PATH), RunMetrics.toPrometheus(
+                    engine.targets.stream().map(target -> target.metrics).collect(Collectors.toList())));
+        } catch (final IOException exception) {
+            LOGGER.log(Level.WARNING, "Error while writing the Prometheus metrics", exception);
+        }
+    }
+
+    /**
+     * Regenerates the wallpapers of the given movies of each given target (by name), or deletes them if the movies
+     * aren't in its library anymore.
+     */
+    private static void refresh(final Engine engine, final Map<String, Set<String>> idsByTarget) throws Exception {
+        engine.memoryBudget.resetStatistics();
+        try {
+            PlexWallpaperGenerator.forEachTarget(
+                    engine.targets.stream().filter(target -> idsByTarget.containsKey(target.name))
+                            .collect(Collectors.toList()),
+                    target -> PlexWallpaperGenerator.refresh(engine, target, idsByTarget.get(target.name)));
+        } finally {
+            PlexWallpaperGenerator.logMemoryBudgetStatistics(engine);
+            PlexWallpaperGenerator.writePrometheusTextfile(engine);
+        }
+    }
+
+    private static void refresh(final Engine engine, final Target target, final Set<String> ids) throws Exception {
+        target.reset(new RunMetrics(target.name, "refresh"));
+        boolean complete = false;
+        try {
+            int index = 0;
+            for (final String id : ids) {
+                final Movie movie = LibrarySectionReader.readMovie(engine.client,
+                        PlexWallpaperGenerator.getFullUrl(target, "/library/metadata/" + id), target.metrics);
+                if (movie == null) {
+                    PlexWallpaperGenerator.deleteWallpapers(target, id);
+                } else if (movie.librarySectionId == null || target.libraryId.equals(movie.librarySectionId)) {
+                    PlexWallpaperGenerator.handleMovie(engine, target, index++, movie);
+                }
+            }
+            complete = true;
+        } finally {
+            target.awaitIdle();
+            if (!SIMULATED) {
+                for (final ProfileDirectory directory : target.directories) {
+                    directory.manifest.save();
+                }
+            }
+            PlexWallpaperGenerator.writeRunReport(engine, target, complete && target.failure.get() == null);
+        }
+        PlexWallpaperGenerator.checkFailure(target);
+    }
+
+    /**
+     * @param serverIdentifier machine identifier of the server which sent a webhook, {@code null} if unknown
+     * @param librarySectionId section of the notified item, {@code null} if unknown
+     * @return the names of the targets to which the notified item may belong: rating keys being only unique within a
+     *         server, those of other servers are left out (as well as all of them if the server can't be told)
+     */
+    private static List<String> getNotifiedTargets(final Engine engine, final String serverIdentifier,
+            final String librarySectionId) {
+        final boolean singleServer = engine.targets.stream().map(target -> target.serverUrl).distinct().count() == 1;
+        final List<String> names = new ArrayList<>();
+        for (final Target target : engine.targets) {
+            if ((librarySectionId == null || librarySectionId.equals(target.libraryId)) && (singleServer
+                    || serverIdentifier != null
+                            && serverIdentifier.equals(PlexWallpaperGenerator.getServerIdentifier(engine, target)))) {
+                names.add(target.name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return the machine identifier of the server of the target, or {@code null} if it can't be read (for now)
+     */
+    private static String getServerIdentifier(final Engine engine, final Target target) {
+        if (target.serverIdentifier == null) {
+            try {
+                target.serverIdentifier = LibrarySectionReader.readServerIdentifier(engine.client,
+                        PlexWallpaperGenerator.getFullUrl(target, "/identity"));
+            } catch (final IOException | XMLStreamException exception) {
+                LOGGER.warning(target.logPrefix + "Unable to identify the server: " + exception);
+            }
+        }
+        return target.serverIdentifier;
     }
 
     public static void main(final String[] args) {
-        boolean warnings = false;
+        Engine engine = null;
         try {
             if (MANDATORY_FILE_PATH_PATTERN != null) {
-                System.out.println("Will only process movies which files respect following pattern: ["
+                LOGGER.info("Will only process movies which files respect following pattern: ["
                         + MANDATORY_FILE_PATH_PATTERN + "]");
             }
             if (!MANDATORY_GENRES.isEmpty()) {
-                System.out.println("Will only process movies which are tagged with one of these genres: ["
+                LOGGER.info("Will only process movies which are tagged with one of these genres: ["
                         + String.join(", ", MANDATORY_GENRES) + "]");
             }
-            final OkHttpClient client = new OkHttpClient();
-            final String url = PlexWallpaperGenerator.getFullUrl("/library/sections/" + LIBRARY_ID + "/all");
-            System.out.println("Querying URL: " + url);
-            final Request request = new Request.Builder().url(url).get().build();
-            try (Response response = client.newCall(request).execute()) {
-                if (!response.isSuccessful()) {
-                    throw new IOException("Unexpected response code: " + response + " " + response.body().string());
-                }
-
-                final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
-                        .parse(response.body().byteStream());
-                final NodeList videos = document.getElementsByTagName("Video");
-                VideoLoop: for (int videoIndex = 0; videoIndex < videos.getLength(); videoIndex++) {
-                    final Node videoNode = videos.item(videoIndex);
-                    final NamedNodeMap videoAttributes = videoNode.getAttributes();
-                    final String id = videoAttributes.getNamedItem("ratingKey").getNodeValue();
-                    String title = "";
-                    Node titleNode = videoAttributes.getNamedItem("originalTitle");
-                    if (titleNode != null) {
-                        title = PlexWallpaperGenerator.sanitizeTitle(titleNode.getNodeValue());
-                    }
-                    if (title.length() == 0) {
-                        titleNode = videoAttributes.getNamedItem("title");
-                        title = PlexWallpaperGenerator.sanitizeTitle(titleNode.getNodeValue());
-                    }
-                    if (videoAttributes.getNamedItem("year") != null) {
-                        title += " (" + videoAttributes.getNamedItem("year").getNodeValue() + ")";
-                    }
-                    final String lowerCaseTitle = title.toLowerCase();
-                    for (final String forbiddenKeyword : FORBIDDEN_KEYWORDS) {
-                        if (lowerCaseTitle.contains(forbiddenKeyword)) {
-                            System.out.println("Skipped because contains forbidden keyword ["
-                                    + forbiddenKeyword.toUpperCase() + "]: " + title);
-                            continue VideoLoop;
-                        }
+            engine = PlexWallpaperGenerator.createEngine();
+            if (DAEMON) {
+                final Engine daemonEngine = engine;
+                new WallpaperDaemon(new WallpaperDaemon.Handler() {
+                    @Override
+                    public void synchronize() throws Exception {
+                        PlexWallpaperGenerator.synchronize(daemonEngine);
                     }
-                    if (MANDATORY_FILE_PATH_PATTERN != null) {
-                        final Set<String> mediaPartFilePathes = PlexWallpaperGenerator
-                                .getNodeListAsStream(videoNode.getChildNodes())
-                                .filter(node -> "Media".equals(node.getNodeName()))
-                                .flatMap(mediaNode -> PlexWallpaperGenerator
-                                        .getNodeListAsStream(mediaNode.getChildNodes())
-                                        .filter(node -> "Part".equals(node.getNodeName())))
-                                .map(partNode -> partNode.getAttributes().getNamedItem("file").getNodeValue())
-                                .collect(Collectors.toSet());
-                        if (mediaPartFilePathes.stream().filter(
-                                filePath -> FilenameUtils.wildcardMatchOnSystem(filePath, MANDATORY_FILE_PATH_PATTERN))
-                                .count() == 0) {
-                            System.out
-                                    .println("Skipped because corresponding files don't respect the mandatory pattern: "
-                                            + title + " [" + String.join(", ", mediaPartFilePathes) + "]");
-                            continue VideoLoop;
-                        }
-                    }
-                    if (!MANDATORY_GENRES.isEmpty()) {
-                        final Set<String> genreNames = PlexWallpaperGenerator
-                                .getNodeListAsStream(videoNode.getChildNodes())
-                                .filter(node -> "Genre".equals(node.getNodeName())).map(genreNode -> genreNode
-                                        .getAttributes().getNamedItem("tag").getNodeValue().toLowerCase())
-                                .collect(Collectors.toSet());
-                        if (Collections.disjoint(genreNames, MANDATORY_GENRES)) {
-                            System.out.println("Skipped because isn't tagged with any of the mandatory genres: " + title
-                                    + " [" + String.join(", ", genreNames) + "]");
-                            continue VideoLoop;
-                        }
+
+                    @Override
+                    public List<String> getTargets(final String serverIdentifier, final String librarySectionId) {
+                        return PlexWallpaperGenerator.getNotifiedTargets(daemonEngine, serverIdentifier,
+                                librarySectionId);
                     }
-                    if (videoAttributes.getNamedItem("art") == null || videoAttributes.getNamedItem("thumb") == null) {
-                        System.err.println("Image missing for: " + title);
-                        warnings = true;
-                        continue;
+
+                    @Override
+                    public void refresh(final Map<String, Set<String>> idsByTarget) throws Exception {
+                        PlexWallpaperGenerator.refresh(daemonEngine, idsByTarget);
                     }
-                    try {
-                        PlexWallpaperGenerator.handleMovie(id,
-                                PlexWallpaperGenerator.getFullUrl(videoAttributes.getNamedItem("art").getNodeValue()),
-                                PlexWallpaperGenerator.getFullUrl(videoAttributes.getNamedItem("thumb").getNodeValue()),
-                                title,
-                                Long.parseLong(videoAttributes.getNamedItem("updatedAt").getNodeValue()) * 1000L);
-                    } catch (final IOException | NullPointerException exception) {
-                        System.err.println("Error while trying to handle: " + title);
-                        exception.printStackTrace();
-                        warnings = true;
-                        continue;
+
+                    @Override
+                    public void close() throws InterruptedException {
+                        daemonEngine.close();
                     }
-                    // TODO Use proper LOG library (e.g. SLF4J); remark to apply to all uses of
-                    // System.xxx.print
-                    System.out.println(videoIndex + 1 + ". " + title);
-                }
+                }, POLL_INTERVAL, WEBHOOK_PORT == null ? null : new InetSocketAddress(WEBHOOK_ADDRESS, WEBHOOK_PORT),
+                        WEBHOOK_SECRET, WEBHOOK_DEBOUNCE_DELAY).run();
+                return;
+            }
+            try {
+                PlexWallpaperGenerator.synchronize(engine);
+            } finally {
+                engine.close();
             }
-
         } catch (final Exception exception) {
             // TODO Handle exceptions properly
-            exception.printStackTrace();
+            LOGGER.log(Level.SEVERE, "Error while generating wallpapers", exception);
             System.exit(1);
         }
-        if (warnings) {
+        if (engine.targets.stream().anyMatch(target -> target.warnings.get())) {
             // TODO Document exit codes
             System.exit(2);
         }
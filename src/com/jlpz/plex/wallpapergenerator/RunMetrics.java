@@ -0,0 +1,466 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and duration histograms of a synchronization (or refresh), written once it is over as a JSON report and as
+ * a file for the textfile collector of the Prometheus node exporter. Recording only increments preallocated adders
+ * (histograms having fixed exponential buckets), so that it can stay enabled in production.
+ */
+class RunMetrics {
+    static enum Stage {
+        // Per page of the library section (including the streaming of the response)
+        PARSE,
+        // Per listed movie, until it is skipped, found up to date or submitted
+        FILTER,
+        // Per movie being generated, from here on
+        DOWNLOAD, DECODE, RESIZE, COMPOSITE,
+        // Per wallpaper (i.e. per movie and output profile)
+        ENCODE, WRITE;
+
+        String label() {
+            return this.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    static enum SkipReason {
+        FORBIDDEN_KEYWORD, FILE_PATH_PATTERN, GENRE, MISSING_IMAGE;
+
+        String label() {
+            return this.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Durations counted in buckets whose upper bounds double from {@link #FIRST_BUCKET_BOUND} on, the last one being
+     * unbounded.
+     */
+    static final class Histogram {
+        private static final long FIRST_BUCKET_BOUND = TimeUnit.MICROSECONDS.toNanos(100);
+        // Up to ~105 s
+        private static final int BOUNDED_BUCKET_COUNT = 21;
+
+        private final LongAdder[] buckets = new LongAdder[BOUNDED_BUCKET_COUNT + 1];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+        Histogram() {
+            for (int index = 0; index < this.buckets.length; index++) {
+                this.buckets[index] = new LongAdder();
+            }
+        }
+
+        static long getUpperBound(final int bucketIndex) {
+            return FIRST_BUCKET_BOUND << bucketIndex;
+        }
+
+        void record(final long nanos) {
+            final int bucketIndex = nanos <= FIRST_BUCKET_BOUND ? 0
+                    : 64 - Long.numberOfLeadingZeros((nanos - 1) / FIRST_BUCKET_BOUND);
+            this.buckets[Math.min(bucketIndex, BOUNDED_BUCKET_COUNT)].increment();
+            this.count.increment();
+            this.sum.add(nanos);
+            this.max.accumulate(nanos);
+        }
+
+        long getCount() {
+            return this.count.sum();
+        }
+
+        long getSum() {
+            return this.sum.sum();
+        }
+
+        long getMax() {
+            return this.max.get();
+        }
+
+        long[] getBucketCounts() {
+            return Arrays.stream(this.buckets).mapToLong(LongAdder::sum).toArray();
+        }
+
+        /**
+         * @return the given percentile, interpolated linearly within the bucket holding it (as Prometheus does) and
+         *         capped by the maximum
+         */
+        long getPercentile(final int percentile) {
+            final long[] bucketCounts = this.getBucketCounts();
+            final long total = Arrays.stream(bucketCounts).sum();
+            if (total == 0) {
+                return 0L;
+            }
+            final double rank = percentile / 100d * total;
+            long cumulativeCount = 0L;
+            for (int index = 0; index < BOUNDED_BUCKET_COUNT; index++) {
+                if (cumulativeCount + bucketCounts[index] >= rank) {
+                    final long lowerBound = index == 0 ? 0L : Histogram.getUpperBound(index - 1);
+                    final long upperBound = Histogram.getUpperBound(index);
+                    final double position = (rank - cumulativeCount) / Math.max(1L, bucketCounts[index]);
+                    return Math.min(lowerBound + (long) ((upperBound - lowerBound) * position), this.getMax());
+                }
+                cumulativeCount += bucketCounts[index];
+            }
+            return this.getMax();
+        }
+    }
+
+    static final class SlowItem {
+        final String id;
+        final String title;
+        // In nanoseconds, the time spent in each stage and since the item was listed
+        final long[] stageTimes;
+        final long processingTime;
+        final long latency;
+
+        SlowItem(final String id, final String title, final long[] stageTimes, final long latency) {
+            this.id = id;
+            this.title = title;
+            this.stageTimes = stageTimes;
+            this.processingTime = Arrays.stream(stageTimes).sum();
+            this.latency = latency;
+        }
+    }
+
+    private static final int SLOW_ITEM_COUNT = 10;
+    private static final String PROMETHEUS_PREFIX = "plex_wallpaper_";
+
+    private final String target;
+    private final String type;
+    private final long startedAt = System.currentTimeMillis();
+    private final long start = System.nanoTime();
+    // Set once the run is over
+    private volatile long duration;
+    private volatile String outcome;
+    private final Histogram[] stageDurations = new Histogram[Stage.values().length];
+    private final LongAdder[] skippedMovies = new LongAdder[SkipReason.values().length];
+    private final LongAdder listedMovies = new LongAdder();
+    private final LongAdder upToDateMovies = new LongAdder();
+    private final LongAdder generatedMovies = new LongAdder();
+    private final LongAdder failedMovies = new LongAdder();
+    private final LongAdder deletedMovies = new LongAdder();
+    private final LongAdder writtenWallpapers = new LongAdder();
+    private final LongAdder downloadedBytes = new LongAdder();
+    private final LongAdder writtenBytes = new LongAdder();
+    // Fastest of the slow items first
+    private final PriorityQueue<SlowItem> slowItems = new PriorityQueue<>(SLOW_ITEM_COUNT + 1,
+            Comparator.comparingLong(item -> item.processingTime));
+
+    /**
+     * @param target name of the target of the run
+     * @param type what is measured (e.g. "sync")
+     */
+    RunMetrics(final String target, final String type) {
+        this.target = target;
+        this.type = type;
+        for (int index = 0; index < this.stageDurations.length; index++) {
+            this.stageDurations[index] = new Histogram();
+        }
+        for (int index = 0; index < this.skippedMovies.length; index++) {
+            this.skippedMovies[index] = new LongAdder();
+        }
+    }
+
+    void record(final Stage stage, final long nanos) {
+        this.stageDurations[stage.ordinal()].record(nanos);
+    }
+
+    Histogram getStageDuration(final Stage stage) {
+        return this.stageDurations[stage.ordinal()];
+    }
+
+    void skipped(final SkipReason reason) {
+        this.skippedMovies[reason.ordinal()].increment();
+    }
+
+    void listed() {
+        this.listedMovies.increment();
+    }
+
+    void upToDate() {
+        this.upToDateMovies.increment();
+    }
+
+    void failed() {
+        this.failedMovies.increment();
+    }
+
+    void deleted() {
+        this.deletedMovies.increment();
+    }
+
+    void downloaded(final long bytes) {
+        this.downloadedBytes.add(bytes);
+    }
+
+    void written(final long bytes) {
+        this.writtenWallpapers.increment();
+        this.writtenBytes.add(bytes);
+    }
+
+    /**
+     * @param stageTimes in nanoseconds, indexed by stage ordinal
+     * @param latency in nanoseconds, since the movie was listed
+     */
+    void generated(final String id, final String title, final long[] stageTimes, final long latency) {
+        this.generatedMovies.increment();
+        final long processingTime = Arrays.stream(stageTimes).sum();
+        synchronized (this.slowItems) {
+            if (this.slowItems.size() == SLOW_ITEM_COUNT && this.slowItems.peek().processingTime >= processingTime) {
+                return;
+            }
+            this.slowItems.add(new SlowItem(id, title, stageTimes.clone(), latency));
+            if (this.slowItems.size() > SLOW_ITEM_COUNT) {
+                this.slowItems.poll();
+            }
+        }
+    }
+
+    /**
+     * @return the slowest generated movies (by time spent in the stages, i.e. excluding the time spent waiting in
+     *         queues), slowest first
+     */
+    List<SlowItem> getSlowItems() {
+        final List<SlowItem> items;
+        synchronized (this.slowItems) {
+            items = new ArrayList<>(this.slowItems);
+        }
+        items.sort(Comparator.comparingLong((SlowItem item) -> item.processingTime).reversed());
+        return items;
+    }
+
+    /**
+     * Ends the measures.
+     *
+     * @param outcome "success", "warnings" or "failure"
+     */
+    void finish(final String outcome) {
+        this.duration = System.nanoTime() - this.start;
+        this.outcome = outcome;
+    }
+
+    /**
+     * @return in nanoseconds, the duration of the run so far if not finished yet
+     */
+    private long getDuration() {
+        return this.outcome == null ? System.nanoTime() - this.start : this.duration;
+    }
+
+    /**
+     * @param memoryBudget {@code null} if not used
+     */
+    String toJson(final MemoryBudget memoryBudget) {
+        final StringBuilder json = new StringBuilder(4096);
+        json.append("{\n  \"target\": ").append(RunMetrics.quote(this.target));
+        json.append(",\n  \"type\": ").append(RunMetrics.quote(this.type));
+        json.append(",\n  \"startedAt\": ").append(RunMetrics.quote(Instant.ofEpochMilli(this.startedAt).toString()));
+        json.append(",\n  \"durationMs\": ").append(TimeUnit.NANOSECONDS.toMillis(this.getDuration()));
+        json.append(",\n  \"outcome\": ").append(this.outcome == null ? "null" : RunMetrics.quote(this.outcome));
+        json.append(",\n  \"movies\": {\"listed\": ").append(this.listedMovies.sum()).append(", \"upToDate\": ")
+                .append(this.upToDateMovies.sum()).append(", \"generated\": ").append(this.generatedMovies.sum())
+                .append(", \"failed\": ").append(this.failedMovies.sum()).append(", \"deleted\": ")
+                .append(this.deletedMovies.sum()).append(", \"skipped\": {");
+        for (final SkipReason reason : SkipReason.values()) {
+            json.append(reason.ordinal() == 0 ? "" : ", ").append(RunMetrics.quote(reason.label())).append(": ")
+                    .append(this.skippedMovies[reason.ordinal()].sum());
+        }
+        json.append("}}");
+        json.append(",\n  \"wallpapers\": {\"written\": ").append(this.writtenWallpapers.sum())
+                .append(", \"bytes\": ").append(this.writtenBytes.sum()).append("}");
+        json.append(",\n  \"downloadedBytes\": ").append(this.downloadedBytes.sum());
+        if (memoryBudget != null) {
+            json.append(",\n  \"memoryBudget\": {\"capacityBytes\": ").append(memoryBudget.getCapacity())
+                    .append(", \"peakBytes\": ").append(memoryBudget.getPeakUsed()).append(", \"waits\": ")
+                    .append(memoryBudget.getWaitCount()).append(", \"waitMs\": ")
+                    .append(TimeUnit.NANOSECONDS.toMillis(memoryBudget.getWaitTime())).append("}");
+        }
+        json.append(",\n  \"stages\": {");
+        for (final Stage stage : Stage.values()) {
+            final Histogram histogram = this.getStageDuration(stage);
+            json.append(stage.ordinal() == 0 ? "\n" : ",\n").append("    ").append(RunMetrics.quote(stage.label()))
+                    .append(": {\"count\": ").append(histogram.getCount()).append(", \"totalMs\": ")
+                    .append(RunMetrics.toMillis(histogram.getSum())).append(", \"meanMs\": ")
+                    .append(RunMetrics.toMillis(histogram.getCount() == 0 ? 0L
+                            : histogram.getSum() / histogram.getCount()))
+                    .append(", \"p50Ms\": ").append(RunMetrics.toMillis(histogram.getPercentile(50)))
+                    .append(", \"p90Ms\": ").append(RunMetrics.toMillis(histogram.getPercentile(90)))
+                    .append(", \"p99Ms\": ").append(RunMetrics.toMillis(histogram.getPercentile(99)))
+                    .append(", \"maxMs\": ").append(RunMetrics.toMillis(histogram.getMax())).append("}");
+        }
+        json.append("\n  },\n  \"slowestMovies\": [");
+        final List<SlowItem> items = this.getSlowItems();
+        for (int itemIndex = 0; itemIndex < items.size(); itemIndex++) {
+            final SlowItem item = items.get(itemIndex);
+            json.append(itemIndex == 0 ? "\n" : ",\n").append("    {\"id\": ").append(RunMetrics.quote(item.id))
+                    .append(", \"title\": ").append(RunMetrics.quote(item.title)).append(", \"processingMs\": ")
+                    .append(RunMetrics.toMillis(item.processingTime)).append(", \"latencyMs\": ")
+                    .append(RunMetrics.toMillis(item.latency)).append(", \"stagesMs\": {");
+            boolean first = true;
+            for (final Stage stage : Stage.values()) {
+                if (item.stageTimes[stage.ordinal()] > 0) {
+                    json.append(first ? "" : ", ").append(RunMetrics.quote(stage.label())).append(": ")
+                            .append(RunMetrics.toMillis(item.stageTimes[stage.ordinal()]));
+                    first = false;
+                }
+            }
+            json.append("}}");
+        }
+        return json.append(items.isEmpty() ? "]\n}\n" : "\n  ]\n}\n").toString();
+    }
+
+    /**
+     * @param runs last run of each target, those which aren't finished being left out
+     */
+    static String toPrometheus(final List<RunMetrics> runs) {
+        final List<RunMetrics> finishedRuns = new ArrayList<>();
+        for (final RunMetrics run : runs) {
+            if (run.outcome != null) {
+                finishedRuns.add(run);
+            }
+        }
+        final StringBuilder text = new StringBuilder(8192 * Math.max(1, finishedRuns.size()));
+        RunMetrics.appendHeader(text, "last_run_timestamp_seconds", "gauge",
+                "When the last synchronization or refresh started");
+        for (final RunMetrics run : finishedRuns) {
+            RunMetrics.appendSample(text, "last_run_timestamp_seconds", run.getLabels(),
+                    String.valueOf(run.startedAt / 1000L));
+        }
+        RunMetrics.appendHeader(text, "last_run_duration_seconds", "gauge",
+                "Duration of the last synchronization or refresh");
+        for (final RunMetrics run : finishedRuns) {
+            RunMetrics.appendSample(text, "last_run_duration_seconds", run.getLabels(),
+                    RunMetrics.toSeconds(run.duration));
+        }
+        RunMetrics.appendHeader(text, "last_run_success", "gauge",
+                "1 if the last synchronization or refresh completed without warnings nor failure");
+        for (final RunMetrics run : finishedRuns) {
+            RunMetrics.appendSample(text, "last_run_success", run.getLabels(),
+                    "success".equals(run.outcome) ? "1" : "0");
+        }
+        RunMetrics.appendHeader(text, "movies", "gauge", "Movies handled by the last run, by outcome");
+        final String[] outcomes = { "listed", "up_to_date", "generated", "failed", "deleted" };
+        for (final RunMetrics run : finishedRuns) {
+            final long[] outcomeCounts = { run.listedMovies.sum(), run.upToDateMovies.sum(),
+                    run.generatedMovies.sum(), run.failedMovies.sum(), run.deletedMovies.sum() };
+            for (int index = 0; index < outcomes.length; index++) {
+                RunMetrics.appendSample(text, "movies", run.getLabels() + ",outcome=\"" + outcomes[index] + "\"",
+                        String.valueOf(outcomeCounts[index]));
+            }
+        }
+        RunMetrics.appendHeader(text, "skipped_movies", "gauge", "Movies skipped by the last run, by reason");
+        for (final RunMetrics run : finishedRuns) {
+            for (final SkipReason reason : SkipReason.values()) {
+                RunMetrics.appendSample(text, "skipped_movies", run.getLabels() + ",reason=\"" + reason.label() + "\"",
+                        String.valueOf(run.skippedMovies[reason.ordinal()].sum()));
+            }
+        }
+        RunMetrics.appendHeader(text, "written_wallpapers", "gauge", "Wallpapers written by the last run");
+        for (final RunMetrics run : finishedRuns) {
+            RunMetrics.appendSample(text, "written_wallpapers", run.getLabels(),
+                    String.valueOf(run.writtenWallpapers.sum()));
+        }
+        RunMetrics.appendHeader(text, "written_bytes", "gauge", "Size of the wallpapers written by the last run");
+        for (final RunMetrics run : finishedRuns) {
+            RunMetrics.appendSample(text, "written_bytes", run.getLabels(), String.valueOf(run.writtenBytes.sum()));
+        }
+        RunMetrics.appendHeader(text, "downloaded_bytes", "gauge",
+                "Size of the images fetched from the server by the last run");
+        for (final RunMetrics run : finishedRuns) {
+            RunMetrics.appendSample(text, "downloaded_bytes", run.getLabels(),
+                    String.valueOf(run.downloadedBytes.sum()));
+        }
+        RunMetrics.appendHeader(text, "stage_duration_seconds", "histogram",
+                "Time spent in each stage by the last run, per page, movie or wallpaper");
+        for (final RunMetrics run : finishedRuns) {
+            for (final Stage stage : Stage.values()) {
+                final Histogram histogram = run.getStageDuration(stage);
+                final String stageLabels = run.getLabels() + ",stage=\"" + stage.label() + "\"";
+                final long[] bucketCounts = histogram.getBucketCounts();
+                long cumulativeCount = 0L;
+                for (int index = 0; index < Histogram.BOUNDED_BUCKET_COUNT; index++) {
+                    cumulativeCount += bucketCounts[index];
+                    RunMetrics.appendSample(text, "stage_duration_seconds_bucket",
+                            stageLabels + ",le=\"" + RunMetrics.toSeconds(Histogram.getUpperBound(index)) + "\"",
+                            String.valueOf(cumulativeCount));
+                }
+                RunMetrics.appendSample(text, "stage_duration_seconds_bucket", stageLabels + ",le=\"+Inf\"",
+                        String.valueOf(histogram.getCount()));
+                RunMetrics.appendSample(text, "stage_duration_seconds_sum", stageLabels,
+                        RunMetrics.toSeconds(histogram.getSum()));
+                RunMetrics.appendSample(text, "stage_duration_seconds_count", stageLabels,
+                        String.valueOf(histogram.getCount()));
+            }
+        }
+        return text.toString();
+    }
+
+    private String getLabels() {
+        return "target=\"" + this.target.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static void appendHeader(final StringBuilder text, final String name, final String type,
+            final String help) {
+        text.append("# HELP ").append(PROMETHEUS_PREFIX).append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(PROMETHEUS_PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void appendSample(final StringBuilder text, final String name, final String labels,
+            final String value) {
+        text.append(PROMETHEUS_PREFIX).append(name).append('{').append(labels).append('}').append(' ').append(value)
+                .append('\n');
+    }
+
+    /**
+     * Writes the file through a temporary one, so that readers (e.g. the node exporter) never see a partial file.
+     */
+    static void write(final Path file, final String content) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        // Hidden and not ending with ".prom", so that the node exporter ignores it
+        final Path temporaryFile = file.resolveSibling("." + file.getFileName() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+                writer.write(content);
+            }
+            AtomicFiles.replace(temporaryFile, file);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private static String toMillis(final long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String toSeconds(final long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+
+    private static String quote(final String value) {
+        final StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int index = 0; index < value.length(); index++) {
+            final char character = value.charAt(index);
+            if (character == '"' || character == '\\') {
+                quoted.append('\\').append(character);
+            } else if (character < ' ') {
+                quoted.append(String.format("\\u%04x", (int) character));
+            } else {
+                quoted.append(character);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,186 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Disk cache of the original bytes of PLEX images, addressed by a hash of their server URL and PLEX path (e.g.
+ * "/library/metadata/123/art/1589012345"), so that changing only the rendering settings never requires downloading them
+ * again. Each entry is a single versioned file holding the validators (ETag/Last-Modified) used to revalidate it
+ * followed by the data, replaced atomically so that validators can never be paired with other bytes; the least
+ * recently used entries are evicted once the total size exceeds the configured maximum.
+ */
+class SourceImageCache {
+    static final class Entry {
+        final byte[] data;
+        final String eTag;
+        final String lastModified;
+
+        Entry(final byte[] data, final String eTag, final String lastModified) {
+            this.data = data;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static final String ENTRY_EXTENSION = ".entry";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    // Files of previous versions of the cache, deleted when it opens
+    private static final String[] OBSOLETE_EXTENSIONS = { ".bin", ".properties" };
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path directory;
+    private final long maximumSize;
+    // Access-ordered, i.e. least recently used first; sizes are those of entry files
+    private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+
+    SourceImageCache(final Path directory, final long maximumSize) throws IOException {
+        this.directory = directory;
+        this.maximumSize = maximumSize;
+        Files.createDirectories(directory);
+        final List<Path> entryFiles = new ArrayList<>();
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (final Path shard : shards) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(shard)) {
+                    for (final Path file : files) {
+                        final String fileName = file.getFileName().toString();
+                        if (fileName.endsWith(ENTRY_EXTENSION)) {
+                            entryFiles.add(file);
+                        } else if (SourceImageCache.isLeftover(fileName)) {
+                            // Left by a write which failed (or was interrupted) before being renamed
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                }
+            }
+        }
+        // Recency survives restarts through the modification time of entry files (touched on each hit)
+        final Map<Path, FileTime> lastModifiedTimes = new LinkedHashMap<>();
+        for (final Path entryFile : entryFiles) {
+            lastModifiedTimes.put(entryFile, Files.getLastModifiedTime(entryFile));
+        }
+        entryFiles.sort(Comparator.comparing(lastModifiedTimes::get));
+        for (final Path entryFile : entryFiles) {
+            final String fileName = entryFile.getFileName().toString();
+            final long size = Files.size(entryFile);
+            this.sizes.put(fileName.substring(0, fileName.length() - ENTRY_EXTENSION.length()), size);
+            this.totalSize += size;
+        }
+        this.evict();
+    }
+
+    private static boolean isLeftover(final String fileName) {
+        if (fileName.endsWith(TEMPORARY_EXTENSION)) {
+            return true;
+        }
+        for (final String extension : OBSOLETE_EXTENSIONS) {
+            if (fileName.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the cached entry, or {@code null} if there's none
+     */
+    Entry get(final String path) throws IOException {
+        final String hash = Hashes.sha256(path);
+        synchronized (this) {
+            if (this.sizes.get(hash) == null) {
+                return null;
+            }
+        }
+        final Path entryFile = this.file(hash);
+        final Entry entry;
+        try (DataInputStream stream = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(entryFile)))) {
+            if (stream.readInt() != FORMAT_VERSION || !path.equals(stream.readUTF())) {
+                // Another format (or, quite unlikely, another path with the same hash)
+                return null;
+            }
+            final String eTag = SourceImageCache.readOptionalString(stream);
+            final String lastModified = SourceImageCache.readOptionalString(stream);
+            final byte[] data = new byte[stream.readInt()];
+            stream.readFully(data);
+            entry = new Entry(data, eTag, lastModified);
+        } catch (final NoSuchFileException exception) {
+            // Evicted (or removed by hand) in the meantime
+            return null;
+        } catch (final EOFException exception) {
+            // Truncated by hand, as entries are always written whole
+            return null;
+        }
+        Files.setLastModifiedTime(entryFile, FileTime.fromMillis(System.currentTimeMillis()));
+        return entry;
+    }
+
+    void put(final String path, final Entry entry) throws IOException {
+        final String hash = Hashes.sha256(path);
+        final Path entryFile = this.file(hash);
+        Files.createDirectories(entryFile.getParent());
+        final Path temporaryFile = Files.createTempFile(entryFile.getParent(), hash, TEMPORARY_EXTENSION);
+        try {
+            try (DataOutputStream stream = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+                stream.writeInt(FORMAT_VERSION);
+                stream.writeUTF(path);
+                SourceImageCache.writeOptionalString(stream, entry.eTag);
+                SourceImageCache.writeOptionalString(stream, entry.lastModified);
+                stream.writeInt(entry.data.length);
+                stream.write(entry.data);
+            }
+            AtomicFiles.replace(temporaryFile, entryFile);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+
+        final long size = Files.size(entryFile);
+        synchronized (this) {
+            final Long previousSize = this.sizes.put(hash, size);
+            this.totalSize += size - (previousSize == null ? 0L : previousSize);
+            this.evict();
+        }
+    }
+
+    private static void writeOptionalString(final DataOutputStream stream, final String value) throws IOException {
+        stream.writeBoolean(value != null);
+        if (value != null) {
+            stream.writeUTF(value);
+        }
+    }
+
+    private static String readOptionalString(final DataInputStream stream) throws IOException {
+        return stream.readBoolean() ? stream.readUTF() : null;
+    }
+
+    private synchronized void evict() throws IOException {
+        final Iterator<Map.Entry<String, Long>> iterator = this.sizes.entrySet().iterator();
+        while (this.totalSize > this.maximumSize && iterator.hasNext()) {
+            final Map.Entry<String, Long> leastRecentlyUsed = iterator.next();
+            Files.deleteIfExists(this.file(leastRecentlyUsed.getKey()));
+            this.totalSize -= leastRecentlyUsed.getValue();
+            iterator.remove();
+        }
+    }
+
+    private Path file(final String hash) {
+        return this.directory.resolve(hash.substring(0, 2)).resolve(hash + ENTRY_EXTENSION);
+    }
+}
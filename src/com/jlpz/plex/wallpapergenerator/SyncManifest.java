@@ -0,0 +1,194 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Record of what was generated for each rating key (source images, rendering settings, resulting file and its hash),
+ * persisted in the target directory so that a run only has to handle movies which actually changed. Its header also
+ * tells when the last complete sync started and with which settings, which allows asking the server only for movies
+ * updated since then.
+ */
+class SyncManifest {
+    static final class Entry {
+        final long updatedAt;
+        final String art;
+        final String thumb;
+        final String fingerprint;
+        final String fileName;
+        final long fileModified;
+        // null if unknown (i.e. adopted from a directory generated before the manifest existed)
+        final String outputHash;
+
+        Entry(final long updatedAt, final String art, final String thumb, final String fingerprint,
+                final String fileName, final long fileModified, final String outputHash) {
+            this.updatedAt = updatedAt;
+            this.art = art;
+            this.thumb = thumb;
+            this.fingerprint = fingerprint;
+            this.fileName = fileName;
+            this.fileModified = fileModified;
+            this.outputHash = outputHash;
+        }
+
+        /**
+         * @return whether the entry was generated from the given sources with the given settings
+         */
+        boolean matches(final long updatedAt, final String art, final String thumb, final String fingerprint) {
+            return this.updatedAt == updatedAt && this.art.equals(art) && this.thumb.equals(thumb)
+                    && this.fingerprint.equals(fingerprint);
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(SyncManifest.class.getName());
+
+    private static final String VERSION = "1";
+    private static final String HEADER_PREFIX = "#";
+    private static final String SEPARATOR = "\t";
+    private static final String UNKNOWN = "-";
+
+    private final Path file;
+    private final boolean existing;
+    private Long syncedAt;
+    private String selectionFingerprint;
+    private String renderingFingerprint;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private SyncManifest(final Path file, final boolean existing) {
+        this.file = file;
+        this.existing = existing;
+    }
+
+    /**
+     * @return the manifest stored in the given file, or an empty one if there's none (or it can't be understood)
+     */
+    static SyncManifest load(final Path file) throws IOException {
+        final Map<String, String> header = new HashMap<>();
+        final SyncManifest manifest = new SyncManifest(file, true);
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(HEADER_PREFIX)) {
+                    final int equalIndex = line.indexOf('=');
+                    header.put(line.substring(HEADER_PREFIX.length(), equalIndex), line.substring(equalIndex + 1));
+                    continue;
+                }
+                final String[] fields = line.split(SEPARATOR);
+                manifest.entries.put(fields[0],
+                        new Entry(Long.parseLong(fields[1]), fields[2], fields[3], fields[4], fields[5],
+                                Long.parseLong(fields[6]), UNKNOWN.equals(fields[7]) ? null : fields[7]));
+            }
+        } catch (final NoSuchFileException exception) {
+            return new SyncManifest(file, false);
+        } catch (final RuntimeException exception) {
+            LOGGER.warning("Ignoring unreadable manifest " + file + ": " + exception);
+            return new SyncManifest(file, false);
+        }
+        if (!VERSION.equals(header.get("version"))) {
+            return new SyncManifest(file, false);
+        }
+        manifest.syncedAt = header.containsKey("syncedAt") ? Long.valueOf(header.get("syncedAt")) : null;
+        manifest.selectionFingerprint = header.get("selection");
+        manifest.renderingFingerprint = header.get("rendering");
+        return manifest;
+    }
+
+    /**
+     * @return whether the manifest was read from an existing file
+     */
+    boolean isExisting() {
+        return this.existing;
+    }
+
+    /**
+     * @return when (in seconds since epoch) the last complete sync started, or {@code null} if unknown
+     */
+    Long getSyncedAt() {
+        return this.syncedAt;
+    }
+
+    String getSelectionFingerprint() {
+        return this.selectionFingerprint;
+    }
+
+    String getRenderingFingerprint() {
+        return this.renderingFingerprint;
+    }
+
+    synchronized Entry get(final String id) {
+        return this.entries.get(id);
+    }
+
+    /**
+     * @return whether the given file (named like a wallpaper of the movie) was generated: before the manifest exists,
+     *         its name is all there is to tell, afterwards only the file it records for the movie was
+     */
+    synchronized boolean isGenerated(final String id, final String fileName) {
+        if (!this.existing) {
+            return true;
+        }
+        final Entry entry = this.entries.get(id);
+        return entry != null && entry.fileName.equals(fileName);
+    }
+
+    synchronized void put(final String id, final Entry entry) {
+        this.entries.put(id, entry);
+    }
+
+    synchronized void remove(final String id) {
+        this.entries.remove(id);
+    }
+
+    /**
+     * Writes the manifest, keeping the information about the last complete sync.
+     */
+    synchronized void save() throws IOException {
+        this.save(this.syncedAt, this.selectionFingerprint, this.renderingFingerprint);
+    }
+
+    /**
+     * Writes the manifest (through a temporary file, so that a crash never leaves a truncated one).
+     *
+     * @param syncedAt {@code null} if the next run must list the whole library
+     */
+    synchronized void save(final Long syncedAt, final String selectionFingerprint, final String renderingFingerprint)
+            throws IOException {
+        this.syncedAt = syncedAt;
+        this.selectionFingerprint = selectionFingerprint;
+        this.renderingFingerprint = renderingFingerprint;
+        final Path temporaryFile = Files.createTempFile(this.file.getParent(), this.file.getFileName().toString(),
+                ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+                writer.write(HEADER_PREFIX + "version=" + VERSION + "\n");
+                if (syncedAt != null) {
+                    writer.write(HEADER_PREFIX + "syncedAt=" + syncedAt + "\n");
+                }
+                if (selectionFingerprint != null) {
+                    writer.write(HEADER_PREFIX + "selection=" + selectionFingerprint + "\n");
+                }
+                if (renderingFingerprint != null) {
+                    writer.write(HEADER_PREFIX + "rendering=" + renderingFingerprint + "\n");
+                }
+                for (final Map.Entry<String, Entry> idEntry : new TreeMap<>(this.entries).entrySet()) {
+                    final Entry entry = idEntry.getValue();
+                    writer.write(String.join(SEPARATOR, idEntry.getKey(), String.valueOf(entry.updatedAt), entry.art,
+                            entry.thumb, entry.fingerprint, entry.fileName, String.valueOf(entry.fileModified),
+                            entry.outputHash == null ? UNKNOWN : entry.outputHash) + "\n");
+                }
+            }
+            AtomicFiles.replace(temporaryFile, this.file);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Keeps the generator running: synchronizes the libraries at start and then periodically, and/or regenerates the
+ * movies (or shows) notified by PLEX webhooks once they stop changing (i.e. after a debounce delay). Everything runs
+ * on a single thread, so that synchronizations and refreshes never overlap; on shutdown, pending notifications are
+ * still handled and the current work is finished before exiting.
+ */
+class WallpaperDaemon {
+    static interface Handler {
+        void synchronize() throws Exception;
+
+        /**
+         * Called from the thread receiving the webhooks.
+         *
+         * @param serverIdentifier machine identifier of the server which sent a notification, {@code null} if unknown
+         * @param librarySectionId section of the notified item, {@code null} if unknown
+         * @return the names of the targets to which the notified item may belong
+         */
+        Collection<String> getTargets(String serverIdentifier, String librarySectionId);
+
+        /**
+         * Regenerates or - if they don't exist anymore - deletes the wallpapers of the given movies (or shows), by
+         * target name.
+         */
+        void refresh(Map<String, Set<String>> idsByTarget) throws Exception;
+
+        /**
+         * Waits for the work in progress and releases resources.
+         */
+        void close() throws InterruptedException;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(WallpaperDaemon.class.getName());
+    // The shutdown hook of the LogManager resets (i.e. removes) the handlers concurrently to the one of the daemon
+    private static final Formatter SHUTDOWN_FORMATTER = new SimpleFormatter();
+
+    // Webhook payloads are JSON documents sent as the "payload" part of a multipart form
+    private static final Pattern BOUNDARY_PATTERN = Pattern.compile("boundary=\"?([^\";]+)\"?",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern PAYLOAD_PART_PATTERN = Pattern.compile("name=\"payload\"", Pattern.CASE_INSENSITIVE);
+    // Thumbnails attached to some events aren't needed
+    private static final int MAXIMUM_PAYLOAD_SIZE = 1024 * 1024;
+
+    private final Handler handler;
+    private final long pollInterval;
+    private final InetSocketAddress webhookAddress;
+    private final byte[] webhookSecret;
+    private final long debounceDelay;
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+            runnable -> new Thread(runnable, "daemon"));
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    // By target name
+    private final Map<String, Set<String>> pendingIds = new LinkedHashMap<>();
+    private ScheduledFuture<?> pendingRefresh;
+    private HttpServer server;
+    private volatile boolean stopping;
+
+    /**
+     * @param pollInterval in seconds, 0 to synchronize only at start
+     * @param webhookAddress {@code null} not to listen to webhooks
+     * @param webhookSecret value of the "secret" query parameter that webhook requests must provide, mandatory if
+     *            listening to webhooks
+     * @param debounceDelay in seconds
+     */
+    WallpaperDaemon(final Handler handler, final long pollInterval, final InetSocketAddress webhookAddress,
+            final String webhookSecret, final long debounceDelay) {
+        if (webhookAddress != null && (webhookSecret == null || webhookSecret.isEmpty())) {
+            // Anyone able to reach the port could otherwise trigger regenerations and deletions
+            throw new IllegalArgumentException("Webhooks can't be listened to without a secret");
+        }
+        this.handler = handler;
+        this.pollInterval = pollInterval;
+        this.webhookAddress = webhookAddress;
+        this.webhookSecret = webhookSecret == null ? null : webhookSecret.getBytes(StandardCharsets.UTF_8);
+        this.debounceDelay = debounceDelay;
+        this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Runs until the JVM is asked to stop.
+     */
+    void run() throws IOException, InterruptedException {
+        if (this.webhookAddress != null) {
+            this.server = HttpServer.create(this.webhookAddress, 0);
+            this.server.createContext("/", this::handleWebhook);
+            this.server.start();
+            LOGGER.info("Listening to PLEX webhooks on " + this.webhookAddress);
+        }
+        if (this.pollInterval > 0) {
+            this.scheduler.scheduleWithFixedDelay(this::synchronize, 0, this.pollInterval, TimeUnit.SECONDS);
+        } else {
+            this.scheduler.execute(this::synchronize);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "daemon-shutdown"));
+        this.stopped.await();
+    }
+
+    private void synchronize() {
+        try {
+            this.handler.synchronize();
+        } catch (final Exception exception) {
+            LOGGER.log(Level.SEVERE, "Error while synchronizing", exception);
+        }
+    }
+
+    private void handleWebhook(final HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (!this.isAuthorized(exchange.getRequestURI().getRawQuery())) {
+                LOGGER.warning("Ignored webhook without the expected secret from " + exchange.getRemoteAddress());
+                exchange.sendResponseHeaders(403, -1);
+                return;
+            }
+            final byte[] body;
+            try (InputStream stream = exchange.getRequestBody()) {
+                body = stream.readNBytes(MAXIMUM_PAYLOAD_SIZE);
+            }
+            final String payload = WallpaperDaemon
+                    .getPayload(exchange.getRequestHeaders().getFirst("Content-Type"), body);
+            final Map<?, ?> event;
+            try {
+                final Object document = payload == null ? null : JsonParser.parse(payload);
+                event = document instanceof Map ? (Map<?, ?>) document : null;
+            } catch (final IOException exception) {
+                LOGGER.warning("Ignored malformed webhook: " + exception.getMessage());
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            final Map<?, ?> metadata = WallpaperDaemon.getObject(event, "Metadata");
+            // Episodes and seasons of a show share its wallpaper
+            final String id = WallpaperDaemon.getString(metadata, "grandparentRatingKey")
+                    .or(() -> WallpaperDaemon.getString(metadata, "parentRatingKey"))
+                    .or(() -> WallpaperDaemon.getString(metadata, "ratingKey")).orElse(null);
+            if (id != null) {
+                final Collection<String> targets = this.handler.getTargets(
+                        WallpaperDaemon.getString(WallpaperDaemon.getObject(event, "Server"), "uuid").orElse(null),
+                        WallpaperDaemon.getString(metadata, "librarySectionID").orElse(null));
+                if (!targets.isEmpty()) {
+                    LOGGER.info("Notified of " + WallpaperDaemon.getString(event, "event").orElse("an event")
+                            + " for rating key " + id + " " + targets);
+                    this.queue(targets, id);
+                }
+            }
+            exchange.sendResponseHeaders(200, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @param query raw query of the request, {@code null} if none
+     */
+    private boolean isAuthorized(final String query) {
+        if (query == null) {
+            return false;
+        }
+        for (final String parameter : query.split("&")) {
+            if (parameter.startsWith("secret=")) {
+                final byte[] secret = URLDecoder.decode(parameter.substring("secret=".length()), StandardCharsets.UTF_8)
+                        .getBytes(StandardCharsets.UTF_8);
+                // Constant-time comparison, not to tell how much of the secret was guessed
+                return MessageDigest.isEqual(secret, this.webhookSecret);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the JSON document sent by PLEX, i.e. the "payload" part of a multipart form (or the whole body if it
+     *         isn't one), {@code null} if there's none
+     */
+    static String getPayload(final String contentType, final byte[] body) {
+        final Matcher boundaryMatcher = BOUNDARY_PATTERN.matcher(contentType == null ? "" : contentType);
+        if (!boundaryMatcher.find()) {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+        // One char per byte, so that offsets in the content are those in the body
+        final String content = new String(body, StandardCharsets.ISO_8859_1);
+        final String delimiter = "--" + boundaryMatcher.group(1);
+        int partStart = content.indexOf(delimiter);
+        while (partStart >= 0) {
+            final int headersStart = partStart + delimiter.length();
+            final int headersEnd = content.indexOf("\r\n\r\n", headersStart);
+            final int partEnd = content.indexOf("\r\n" + delimiter, headersStart);
+            if (headersEnd < 0 || partEnd < 0 || headersEnd > partEnd) {
+                return null;
+            }
+            if (PAYLOAD_PART_PATTERN.matcher(content.substring(headersStart, headersEnd)).find()) {
+                return new String(body, headersEnd + 4, partEnd - headersEnd - 4, StandardCharsets.UTF_8);
+            }
+            partStart = partEnd + 2;
+        }
+        return null;
+    }
+
+    /**
+     * @return the member of the given JSON object if it's an object itself, {@code null} otherwise
+     */
+    private static Map<?, ?> getObject(final Map<?, ?> object, final String name) {
+        final Object member = object == null ? null : object.get(name);
+        return member instanceof Map ? (Map<?, ?>) member : null;
+    }
+
+    /**
+     * @return the member of the given JSON object if it's a string or a number (e.g. a "librarySectionID")
+     */
+    private static Optional<String> getString(final Map<?, ?> object, final String name) {
+        final Object member = object == null ? null : object.get(name);
+        if (member instanceof String) {
+            return Optional.of((String) member);
+        }
+        if (member instanceof BigDecimal) {
+            return Optional.of(((BigDecimal) member).toString());
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Postpones the refresh until no notification was received during the debounce delay.
+     */
+    private synchronized void queue(final Collection<String> targets, final String id) {
+        for (final String target : targets) {
+            this.pendingIds.computeIfAbsent(target, name -> new LinkedHashSet<>()).add(id);
+        }
+        if (this.pendingRefresh != null) {
+            this.pendingRefresh.cancel(false);
+        }
+        if (!this.scheduler.isShutdown()) {
+            this.pendingRefresh = this.scheduler.schedule(this::refresh, this.debounceDelay, TimeUnit.SECONDS);
+        }
+    }
+
+    private void refresh() {
+        final Map<String, Set<String>> ids;
+        synchronized (this) {
+            ids = new LinkedHashMap<>(this.pendingIds);
+            this.pendingIds.clear();
+            this.pendingRefresh = null;
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        try {
+            this.handler.refresh(ids);
+        } catch (final Exception exception) {
+            this.log(Level.SEVERE, "Error while refreshing " + ids, exception);
+        }
+    }
+
+    private void stop() {
+        this.stopping = true;
+        this.log(Level.INFO, "Stopping: finishing work in progress", null);
+        if (this.server != null) {
+            this.server.stop(1);
+        }
+        try {
+            synchronized (this) {
+                // Pending notifications are handled right away instead of after the debounce delay
+                if (this.pendingRefresh != null) {
+                    this.pendingRefresh.cancel(false);
+                }
+                this.scheduler.execute(this::refresh);
+                this.scheduler.shutdown();
+            }
+            while (!this.scheduler.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Keep waiting: a synchronization can legitimately take long
+            }
+            this.handler.close();
+            this.log(Level.INFO, "Stopped", null);
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.stopped.countDown();
+        }
+    }
+
+    /**
+     * Logs to the standard output (or error for problems) stream directly once stopping, as the handlers may have been
+     * reset by then.
+     */
+    private void log(final Level level, final String message, final Throwable thrown) {
+        if (!this.stopping) {
+            LOGGER.log(level, message, thrown);
+            return;
+        }
+        final LogRecord record = new LogRecord(level, message);
+        record.setLoggerName(LOGGER.getName());
+        record.setThrown(thrown);
+        final PrintStream stream = level.intValue() < Level.WARNING.intValue() ? System.out : System.err;
+        stream.print(SHUTDOWN_FORMATTER.format(record));
+        stream.flush();
+    }
+}
@@ -0,0 +1,76 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State of a single wallpaper travelling through the {@link WallpaperPipeline}: each stage reads what the previous
+ * one produced and releases it as soon as it is no longer needed.
+ */
+class WallpaperJob {
+    /**
+     * Wallpaper to generate in one of the output profiles.
+     */
+    static final class Output {
+        final PlexWallpaperGenerator.ProfileDirectory directory;
+        final File targetFile;
+        final File[] previousFiles;
+
+        BufferedImage combinedImage;
+
+        Output(final PlexWallpaperGenerator.ProfileDirectory directory, final File targetFile,
+                final File[] previousFiles) {
+            this.directory = directory;
+            this.targetFile = targetFile;
+            this.previousFiles = previousFiles;
+        }
+    }
+
+    // Library to which the movie belongs
+    final PlexWallpaperGenerator.Target target;
+    final int index;
+    final String id;
+    final String title;
+    final String stillPath;
+    final String posterPath;
+    final long updatedAt;
+    final List<Output> outputs;
+    // When the job was created, i.e. when the movie was found to need a wallpaper (System.nanoTime)
+    final long createdAt = System.nanoTime();
+    // In nanoseconds, the time spent in each stage (indexed by RunMetrics.Stage ordinal)
+    final long[] stageTimes = new long[RunMetrics.Stage.values().length];
+
+    byte[] stillData;
+    byte[] posterData;
+    // Resized images by requested dimension (see PlexWallpaperGenerator#decodeAndResize), shared by the outputs
+    // which need the same one
+    final Map<Dimension, BufferedImage> stillImages = new HashMap<>();
+    final Map<Dimension, BufferedImage> posterImages = new HashMap<>();
+    // Estimated sizes still reserved in the MemoryBudget of the engine
+    long resizedImagesBytes;
+    long combinedImagesBytes;
+
+    WallpaperJob(final PlexWallpaperGenerator.Target target, final int index, final String id, final String title,
+            final String stillPath, final String posterPath, final long updatedAt, final List<Output> outputs) {
+        this.target = target;
+        this.index = index;
+        this.id = id;
+        this.title = title;
+        this.stillPath = stillPath;
+        this.posterPath = posterPath;
+        this.updatedAt = updatedAt;
+        this.outputs = outputs;
+    }
+
+    /**
+     * Records the given time spent in the stage, both in the metrics of the target and for this job.
+     */
+    void record(final RunMetrics.Stage stage, final long nanos) {
+        this.target.metrics.record(stage, nanos);
+        this.stageTimes[stage.ordinal()] += nanos;
+    }
+}
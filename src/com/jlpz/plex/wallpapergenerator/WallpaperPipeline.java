@@ -0,0 +1,147 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chain of stages (e.g. fetch, decode, composite, encode), each one having its own pool of workers and a bounded queue
+ * in front of it. A stage whose successor's queue is full blocks, so that a slow stage throttles the ones before it
+ * instead of letting intermediate images pile up in memory.
+ */
+class WallpaperPipeline {
+    @FunctionalInterface
+    static interface Stage {
+        void process(WallpaperJob job) throws Exception;
+    }
+
+    static interface Listener {
+        void completed(WallpaperJob job);
+
+        void failed(WallpaperJob job, Throwable throwable);
+    }
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<ThreadPoolExecutor> executors = new ArrayList<>();
+    private final int queueCapacity;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // Number of jobs submitted but not completed/failed yet
+    private int pendingJobs;
+
+    WallpaperPipeline(final int queueCapacity, final Listener listener) {
+        this.queueCapacity = queueCapacity;
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Registers another listener (e.g. to measure the pipeline), called after the ones registered before it.
+     */
+    WallpaperPipeline addListener(final Listener listener) {
+        this.listeners.add(listener);
+        return this;
+    }
+
+    WallpaperPipeline addStage(final String name, final int threads, final Stage stage) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadFactory threadFactory = runnable -> new Thread(runnable,
+                name + "-" + threadCount.incrementAndGet());
+        this.stages.add(stage);
+        this.executors.add(new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                // Fair, so that producers blocked on a full queue (e.g. the listings of several targets) take turns
+                new ArrayBlockingQueue<>(this.queueCapacity, true), threadFactory, (runnable, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Stage " + name + " is shut down.");
+                    }
+                    try {
+                        executor.getQueue().put(runnable);
+                    } catch (final InterruptedException exception) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException(exception);
+                    }
+                }));
+        return this;
+    }
+
+    /**
+     * Hands the job over to the first stage, blocking while its queue is full. A job which can't be handed over to a
+     * stage (i.e. shut down, or interrupted while waiting) fails like one whose stage threw.
+     */
+    void submit(final WallpaperJob job) {
+        synchronized (this) {
+            this.pendingJobs++;
+        }
+        this.submit(0, job);
+    }
+
+    private void submit(final int stageIndex, final WallpaperJob job) {
+        try {
+            this.executors.get(stageIndex).execute(() -> {
+                try {
+                    this.stages.get(stageIndex).process(job);
+                } catch (final Throwable throwable) {
+                    this.failed(job, throwable);
+                    return;
+                }
+                if (stageIndex + 1 < this.stages.size()) {
+                    this.submit(stageIndex + 1, job);
+                } else {
+                    try {
+                        for (final Listener listener : this.listeners) {
+                            listener.completed(job);
+                        }
+                    } finally {
+                        this.finished();
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException exception) {
+            // Otherwise the job would stay pending forever, and so would anyone waiting for the pipeline to be idle
+            this.failed(job, exception);
+        }
+    }
+
+    private void failed(final WallpaperJob job, final Throwable throwable) {
+        try {
+            for (final Listener listener : this.listeners) {
+                listener.failed(job, throwable);
+            }
+        } finally {
+            this.finished();
+        }
+    }
+
+    private synchronized void finished() {
+        this.pendingJobs--;
+        if (this.pendingJobs == 0) {
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until every submitted job went through all stages, keeping the workers for jobs submitted afterwards.
+     */
+    synchronized void awaitIdle() throws InterruptedException {
+        while (this.pendingJobs > 0) {
+            this.wait();
+        }
+    }
+
+    /**
+     * Waits until every submitted job went through all stages, then releases the workers. Stages are drained in order
+     * since each one only feeds the next.
+     */
+    void awaitCompletion() throws InterruptedException {
+        for (final ThreadPoolExecutor executor : this.executors) {
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Keep waiting: a single item can legitimately take long on a slow server
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.jlpz.plex.wallpapergenerator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OutputDirectoryIndexTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("wallpapers");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void indexesOnlyFilesNamedLikeWallpapers() throws IOException {
+        this.createFiles("movie_1 (2001).1.jpg", "am\u00e9lie (2001).2.jpg", "holiday.jpg", "foo.bar.jpg",
+                "Holiday Trip.3.jpg", "notes.4.txt");
+        final OutputDirectoryIndex index = new OutputDirectoryIndex(this.directory, "jpg");
+        final SyncManifest manifest = SyncManifest.load(this.directory.resolve(".wallpapers.manifest"));
+
+        assertEquals(Arrays.asList("1", "2"), this.sorted(index.getOrphanIds(Collections.emptySet(), manifest)));
+        assertEquals(Arrays.asList("movie_1 (2001).1.jpg"), index.getGeneratedFileNames("1", manifest));
+    }
+
+    @Test
+    public void keepsForeignFilesOnceManifestExists() throws IOException {
+        this.createFiles("movie_1 (2001).1.jpg", "foo.2019.jpg");
+        final Path manifestFile = this.directory.resolve(".wallpapers.manifest");
+        final SyncManifest previousManifest = SyncManifest.load(manifestFile);
+        previousManifest.put("1", new SyncManifest.Entry(1L, "/art", "/thumb", "fingerprint", "movie_1 (2001).1.jpg",
+                0L, null));
+        previousManifest.save();
+        final SyncManifest manifest = SyncManifest.load(manifestFile);
+        final OutputDirectoryIndex index = new OutputDirectoryIndex(this.directory, "jpg");
+
+        // Same sweep as DELETE_ORPHANS with a library which has none of these movies
+        for (final String orphanId : index.getOrphanIds(Collections.emptySet(), manifest)) {
+            for (final String fileName : index.getGeneratedFileNames(orphanId, manifest)) {
+                Files.delete(this.directory.resolve(fileName));
+                index.removed(orphanId, fileName);
+            }
+        }
+
+        assertFalse(Files.exists(this.directory.resolve("movie_1 (2001).1.jpg")));
+        assertTrue(Files.exists(this.directory.resolve("foo.2019.jpg")));
+        assertTrue(index.getGeneratedFileNames("2019", manifest).isEmpty());
+    }
+
+    private void createFiles(final String... fileNames) throws IOException {
+        for (final String fileName : fileNames) {
+            Files.createFile(this.directory.resolve(fileName));
+        }
+    }
+
+    private List<String> sorted(final List<String> values) {
+        Collections.sort(values);
+        return values;
+    }
+}